@@ -0,0 +1,116 @@
+import gurobi.*;
+
+/*
+ * Pods that share resource usage and errors are interchangeable, so instead of a binary y_ij per node and pod this
+ * formulation has an integer z_ik counting the pods of type k on node i. The variable count depends on the number of
+ * types (at most 10 sizes x 20 error levels) and not on the number of pods, and the optimal objective is the same as
+ * the pod-level model: every y solution sums to a z solution and every z solution splits back into a y solution.
+ */
+class AggregatedFormulation {
+    private ClusterState state;
+    private GRBModel model;
+    private GRBVar[] x;
+    private GRBVar[][] z;
+
+    private PodTypes types;
+
+    public AggregatedFormulation(GRBEnv env, ClusterState state, double mipGap) throws GRBException {
+        this.state = state;
+
+        types = new PodTypes(state);
+
+        int numNodes = state.numNodes;
+
+        model = new GRBModel(env);
+        model.set(GRB.StringAttr.ModelName, "nodePodClassesAllocation");
+        model.set(GRB.DoubleParam.MIPGap, mipGap);
+        model.set(GRB.IntAttr.ModelSense, GRB.MINIMIZE);
+
+        x = new GRBVar[numNodes];
+        z = new GRBVar[numNodes][types.numTypes];
+
+        GRBLinExpr somatorio = new GRBLinExpr();
+
+        for (int i = 0; i < numNodes; ++i) {
+            x[i] = model.addVar(0.0, 1.0, state.nodeOpeningCost[i], GRB.BINARY, "x_" + i);
+            somatorio.addTerm(1.0, x[i]);
+
+            /* gamma and e are zero in the pod-level model, so each pod costs the allocation cost of its node. */
+            for (int k = 0; k < types.numTypes; ++k)
+                z[i][k] = model.addVar(0.0, types.count[k], state.nodeAllocationCost[i], GRB.INTEGER, "z_" + i + "," + k);
+        }
+
+        model.addConstr(somatorio, GRB.GREATER_EQUAL, 1, "MinimoNodes");
+
+        /* Every pod of type k is served: sum_i z_ik = n_k. */
+        for (int k = 0; k < types.numTypes; ++k) {
+            GRBLinExpr atendimento = new GRBLinExpr();
+
+            for (int i = 0; i < numNodes; ++i)
+                atendimento.addTerm(1.0, z[i][k]);
+
+            model.addConstr(atendimento, GRB.EQUAL, types.count[k], "AtendimentoTipo_" + k);
+        }
+
+        for (int i = 0; i < numNodes; ++i) {
+            /* sum_k u_k z_ik <= U_i x_i */
+            GRBLinExpr capacidade = new GRBLinExpr();
+
+            for (int k = 0; k < types.numTypes; ++k)
+                capacidade.addTerm(types.size[k], z[i][k]);
+
+            capacidade.addTerm(-state.nodeCapacity[i], x[i]);
+            model.addConstr(capacidade, GRB.LESS_EQUAL, 0.0, "CapacidadeNo_" + i);
+
+            /* z_ik <= n_k x_i, the aggregated form of y_ij <= x_i. */
+            for (int k = 0; k < types.numTypes; ++k) {
+                GRBLinExpr alocacao = new GRBLinExpr();
+                alocacao.addTerm(1.0, z[i][k]);
+                alocacao.addTerm(-types.count[k], x[i]);
+                model.addConstr(alocacao, GRB.LESS_EQUAL, 0.0, "AlocacaoNoAberto_" + i + "," + k);
+            }
+        }
+    }
+
+    public GRBModel getModel() {
+        return model;
+    }
+
+    public GRBVar[] getNodeVars() {
+        return x;
+    }
+
+    public int getNumTypes() {
+        return types.numTypes;
+    }
+
+    /* Maps the optimal counts back to concrete pods and assigns them in the state. */
+    public void disaggregate() throws GRBException {
+        state.clearAssignment();
+
+        for (int k = 0; k < types.numTypes; ++k) {
+            double[] counts = model.get(GRB.DoubleAttr.X, column(k));
+            int next = types.start[k];
+
+            for (int i = 0; i < state.numNodes; ++i) {
+                long count = Math.round(counts[i]);
+
+                for (long c = 0; c < count; c++)
+                    state.assign(types.pods[next++], i);
+            }
+        }
+    }
+
+    public void dispose() throws GRBException {
+        model.dispose();
+    }
+
+    private GRBVar[] column(int k) {
+        GRBVar[] column = new GRBVar[state.numNodes];
+
+        for (int i = 0; i < state.numNodes; ++i)
+            column[i] = z[i][k];
+
+        return column;
+    }
+}
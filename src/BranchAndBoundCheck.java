@@ -0,0 +1,116 @@
+import java.util.Random;
+
+/*
+ * Checks BranchAndBoundSolver against an exhaustive search on small random instances (2-5 nodes, 3-9 pods): the
+ * objective is never below the optimum and within the gap of it when GAP_REACHED is claimed, the lower bound is never
+ * above it, and INFEASIBLE is returned exactly when no packing exists. Prints the failing instances and their count.
+ *
+ *     java BranchAndBoundCheck trials=2000 seed=1
+ */
+class BranchAndBoundCheck {
+    private static final double MIP_GAP = 0.03;
+    private static final double EPSILON = 1e-6;
+
+    private static double optimum;
+
+    public static void main(String[] args) {
+        int trials = Integer.parseInt(option(args, "trials", "2000"));
+        Random random = new Random(Long.parseLong(option(args, "seed", "1")));
+        int failures = 0;
+
+        for (int t = 0; t < trials; t++) {
+            int numNodes = 2 + random.nextInt(4);
+            int numPods = 3 + random.nextInt(7);
+
+            ClusterState state = new ClusterState(numNodes, numPods);
+            state.resizeNodes(numNodes);
+            state.resizePods(numPods);
+            state.errorWeight = random.nextBoolean() ? 0.0 : 1.0;
+
+            for (int i = 0; i < numNodes; i++)
+                state.setNode(i, 1 + random.nextInt(20), 1 + random.nextInt(40), 1 + random.nextInt(40), 1 + random.nextInt(10), true);
+
+            for (int j = 0; j < numPods; j++)
+                state.setPod(j, 1 + random.nextInt(10), 1 + random.nextInt(20));
+
+            state.clearAssignment();
+
+            optimum = Double.POSITIVE_INFINITY;
+            search(state, 0, new int[numNodes], new int[numNodes], 0.0);
+
+            ClusterState solved = state.copyInstance();
+            PlacementResult result = new BranchAndBoundSolver(MIP_GAP, 100).solve(solved);
+            String error = check(solved, result);
+
+            if (!error.isEmpty()) {
+                failures++;
+                System.out.println("trial " + t + " (" + numNodes + " nodes, " + numPods + " pods): optimum " + optimum + ", objective "
+                        + result.getObjective() + ", lower bound " + result.getLowerBound() + ", status " + result.getStatusName() + ":" + error);
+            }
+        }
+
+        System.out.println(failures + " failures in " + trials + " trials");
+    }
+
+    private static String check(ClusterState solved, PlacementResult result) {
+        String error = "";
+
+        if (optimum == Double.POSITIVE_INFINITY) {
+            if (result.getStatus() != PlacementResult.INFEASIBLE)
+                error += " not reported infeasible";
+
+            return error;
+        }
+
+        if (result.getStatus() == PlacementResult.INFEASIBLE)
+            error += " reported infeasible";
+        if (result.getObjective() < optimum - EPSILON)
+            error += " objective below the optimum";
+        if (result.getStatus() == PlacementResult.GAP_REACHED && result.getObjective() * (1 - MIP_GAP) > optimum + EPSILON)
+            error += " gap claimed but not reached";
+        if (result.getLowerBound() > optimum + EPSILON)
+            error += " lower bound above the optimum";
+        if (solved.assignedPods() != solved.numPods || Math.abs(solved.totalCost() - result.getObjective()) > EPSILON)
+            error += " assignment does not match the objective";
+
+        for (int i = 0; i < solved.numNodes; i++) {
+            if (solved.nodeUsed[i] > solved.nodeCapacity[i])
+                error += " node " + i + " over capacity";
+        }
+
+        return error;
+    }
+
+    /* Every assignment of the pods from j on, cut when it cannot beat the best found. */
+    private static void search(ClusterState state, int j, int[] used, int[] pods, double cost) {
+        if (cost >= optimum)
+            return;
+
+        if (j == state.numPods) {
+            optimum = cost;
+            return;
+        }
+
+        for (int i = 0; i < state.numNodes; i++) {
+            if (used[i] + state.podSize[j] > state.nodeCapacity[i])
+                continue;
+
+            double added = state.allocationCost(i, j) + (pods[i] == 0 ? state.nodeOpeningCost[i] : 0.0);
+            used[i] += state.podSize[j];
+            pods[i]++;
+
+            search(state, j + 1, used, pods, cost + added);
+
+            used[i] -= state.podSize[j];
+            pods[i]--;
+        }
+    }
+
+    private static String option(String[] args, String key, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(key + "="))
+                return arg.substring(key.length() + 1);
+        }
+        return defaultValue;
+    }
+}
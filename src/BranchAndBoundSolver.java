@@ -0,0 +1,581 @@
+import java.util.*;
+import java.util.function.IntToDoubleFunction;
+
+/*
+ * Dependency-free solver for the placement model: best-first branch-and-bound on the node opening variables x, with
+ * the same MIP gap semantics as Gurobi's MIPGap and a time limit. Pods that share usage and errors are one type with a
+ * count, as in AggregatedFormulation, so the work per search node depends on the number of types, not of pods.
+ *
+ * The bound of a search node is the sum of two relaxations:
+ *  - opening: alpha of the nodes fixed open, plus the cheapest fractional cover, by alpha / U, of the capacity they lack;
+ *  - allocation: every type at its cheapest allowed node. Without error penalization the allocation cost depends only on
+ *    the node, and the bound instead fills the allowed nodes by increasing allocation cost with the smallest pods first,
+ *    which also accounts for capacity.
+ * The bound is also never below the combined bound, where each pod carries its share of alpha by usage.
+ * Incumbents come from a greedy that packs the types, largest or smallest first, into their cheapest active node with room.
+ * Once every x is fixed, the assignment of the pods to the open nodes is searched exactly, within a step budget.
+ */
+class BranchAndBoundSolver implements PlacementSolver {
+    private static final byte FREE = 0;
+    private static final byte OPEN = 1;
+    private static final byte CLOSED = 2;
+
+    /* Pod placements tried by the exact search of one leaf before it is given up as unresolved. */
+    private static final long LEAF_STEPS = 1_000_000;
+
+    private double mipGap;
+    private double timeLimit;
+
+    private ClusterState state;
+    private int numNodes;
+    private long demand;
+
+    private int numTypes;
+    private int[] typeSize;
+    private int[] typeCount;
+    private int[] typeStart;
+    private int[] typePods;
+    /* cost[k][i]: allocation cost of one pod of type k on node i. */
+    private double[][] cost;
+    /* Nodes of each type by increasing allocation cost, and types by decreasing size. */
+    private int[][] nodesByCost;
+    private int[] typesBySize;
+    private int[] typesBySizeAscending;
+
+    /* Nodes by alpha / U for the cover bound, by allocation cost for the capacity bound and by attractiveness for branching. */
+    private int[] coverOrder;
+    private int[] allocationOrder;
+    private int[] branchOrder;
+    /* smallestPrefix[m]: total usage of the m smallest pods. */
+    private long[] smallestPrefix;
+
+    private int[][] bestCounts;
+    private double bestObjective;
+
+    private int[][] counts;
+    private int[] residual;
+    private boolean[] active;
+
+    /* Leaf search: the type of every pod slot, largest first, and per slot the rank of its node in nodesByCost. */
+    private int[] slotType;
+    private int[] slotRank;
+    private double[] slotPartial;
+    private double[] slotSuffix;
+
+    private static class SearchNode {
+        byte[] status;
+        double bound;
+
+        SearchNode(byte[] status, double bound) {
+            this.status = status;
+            this.bound = bound;
+        }
+    }
+
+    public BranchAndBoundSolver(double mipGap, double timeLimit) {
+        this.mipGap = mipGap;
+        this.timeLimit = timeLimit;
+    }
+
+    public PlacementResult solve(ClusterState state) {
+        long startTime = System.nanoTime();
+
+        this.state = state;
+        prepare();
+        state.clearAssignment();
+
+        long totalCapacity = 0;
+        for (int i = 0; i < numNodes; i++)
+            totalCapacity += state.nodeCapacity[i];
+
+        if (demand > totalCapacity || numNodes == 0)
+            return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, elapsed(startTime));
+
+        bestObjective = Double.POSITIVE_INFINITY;
+
+        byte[] rootStatus = new byte[numNodes];
+        double rootBound = bound(rootStatus);
+        improveIncumbent(rootStatus);
+
+        PriorityQueue<SearchNode> queue = new PriorityQueue<>(Comparator.comparingDouble((SearchNode node) -> node.bound));
+        queue.add(new SearchNode(rootStatus, rootBound));
+
+        /* Smallest bound of the search nodes that were dropped without being proven within the gap. */
+        double unresolvedBound = Double.POSITIVE_INFINITY;
+        double prunedBound = Double.POSITIVE_INFINITY;
+        int status = PlacementResult.GAP_REACHED;
+
+        while (!queue.isEmpty()) {
+            if (elapsed(startTime) > timeLimit) {
+                status = PlacementResult.TIME_LIMIT;
+                break;
+            }
+
+            SearchNode node = queue.peek();
+
+            /* Best-first: once the smallest open bound is within the gap of the incumbent, every other one is too. */
+            if (node.bound >= bestObjective * (1 - mipGap))
+                break;
+
+            queue.poll();
+
+            int branch = pickBranchNode(node.status);
+
+            if (branch < 0) {
+                if (!solveLeaf(node.status))
+                    unresolvedBound = Math.min(unresolvedBound, node.bound);
+                else
+                    /* The leaf was only searched below the cutoff, so its optimum may lie anywhere from there up. */
+                    prunedBound = Math.min(prunedBound, bestObjective * (1 - mipGap));
+                continue;
+            }
+
+            for (byte value : new byte[] {OPEN, CLOSED}) {
+                byte[] childStatus = node.status.clone();
+                childStatus[branch] = value;
+
+                double childBound = bound(childStatus);
+
+                if (childBound == Double.POSITIVE_INFINITY)
+                    continue;
+
+                improveIncumbent(childStatus);
+
+                if (childBound < bestObjective * (1 - mipGap))
+                    queue.add(new SearchNode(childStatus, childBound));
+                else
+                    prunedBound = Math.min(prunedBound, childBound);
+            }
+        }
+
+        /* No packing was found: the pods do not fit the nodes even when their total capacity is enough. */
+        if (bestObjective == Double.POSITIVE_INFINITY)
+            return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, elapsed(startTime));
+
+        double lowerBound = Math.min(bestObjective, Math.min(unresolvedBound, prunedBound));
+        if (!queue.isEmpty())
+            lowerBound = Math.min(lowerBound, queue.peek().bound);
+
+        if (status == PlacementResult.GAP_REACHED && lowerBound < bestObjective * (1 - mipGap))
+            status = PlacementResult.GAP_NOT_PROVEN;
+
+        writeAssignment();
+
+        return new PlacementResult(status, bestObjective, lowerBound, elapsed(startTime));
+    }
+
+    /* Lower bound of the search node, or positive infinity when the allowed nodes cannot hold every pod. */
+    private double bound(byte[] status) {
+        double opening = 0.0;
+        long openCapacity = 0;
+        long allowedCapacity = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (status[i] == OPEN) {
+                opening += state.nodeOpeningCost[i];
+                openCapacity += state.nodeCapacity[i];
+            }
+            if (status[i] != CLOSED)
+                allowedCapacity += state.nodeCapacity[i];
+        }
+
+        if (allowedCapacity < demand)
+            return Double.POSITIVE_INFINITY;
+
+        /* At least one node is open in every solution (MinimoNodes). */
+        long deficit = Math.max(demand - openCapacity, openCapacity == 0 ? 1 : 0);
+
+        for (int r = 0; r < numNodes && deficit > 0; r++) {
+            int i = coverOrder[r];
+
+            if (status[i] == FREE) {
+                long taken = Math.min(deficit, state.nodeCapacity[i]);
+                opening += state.nodeOpeningCost[i] * taken / state.nodeCapacity[i];
+                deficit -= taken;
+            }
+        }
+
+        double allocation = 0.0;
+
+        if (state.errorWeight == 0.0) {
+            long capacity = 0;
+            int placed = 0;
+            int totalPods = smallestPrefix.length - 1;
+
+            for (int r = 0; r < numNodes && placed < totalPods; r++) {
+                int i = allocationOrder[r];
+
+                if (status[i] == CLOSED)
+                    continue;
+
+                capacity += state.nodeCapacity[i];
+                int fitting = maxSmallestPods(capacity);
+                allocation += state.nodeAllocationCost[i] * (fitting - placed);
+                placed = fitting;
+            }
+        } else {
+            for (int k = 0; k < numTypes; k++) {
+                for (int i : nodesByCost[k]) {
+                    if (status[i] != CLOSED) {
+                        allocation += typeCount[k] * cost[k][i];
+                        break;
+                    }
+                }
+            }
+        }
+
+        return Math.max(opening + allocation, combinedBound(status));
+    }
+
+    /*
+     * A node that is not fixed open costs at least alpha * load / U, so each pod can carry its share alpha * u / U of
+     * the opening cost of its node. Every type at its cheapest allowed node under that charge, plus alpha of the nodes
+     * fixed open, is a bound that couples opening and allocation (it ignores capacity instead).
+     */
+    private double combinedBound(byte[] status) {
+        double total = 0.0;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (status[i] == OPEN)
+                total += state.nodeOpeningCost[i];
+        }
+
+        for (int k = 0; k < numTypes; k++) {
+            double cheapest = Double.POSITIVE_INFINITY;
+
+            for (int i = 0; i < numNodes; i++) {
+                if (status[i] == CLOSED)
+                    continue;
+
+                double share = status[i] == OPEN ? 0.0 : state.nodeOpeningCost[i] * typeSize[k] / state.nodeCapacity[i];
+                cheapest = Math.min(cheapest, cost[k][i] + share);
+            }
+
+            total += typeCount[k] * cheapest;
+        }
+
+        return total;
+    }
+
+    /*
+     * Every x is fixed, so what is left is assigning the pods to the open nodes. A depth-first search over the pods,
+     * largest type first, places each one on an open node with room, in increasing cost; pods of one type take nodes
+     * in non-decreasing rank, so permutations of interchangeable pods are not revisited. A branch is cut when its cost
+     * plus the cheapest open node of every remaining pod cannot beat the incumbent by the gap.
+     * Returns false when the search ran out of steps before covering the leaf.
+     */
+    private boolean solveLeaf(byte[] status) {
+        int totalPods = slotType.length;
+        double opening = 0.0;
+
+        for (int i = 0; i < numNodes; i++) {
+            active[i] = status[i] == OPEN;
+            residual[i] = state.nodeCapacity[i];
+
+            if (active[i])
+                opening += state.nodeOpeningCost[i];
+        }
+
+        for (int k = 0; k < numTypes; k++)
+            Arrays.fill(counts[k], 0);
+
+        slotSuffix[totalPods] = 0.0;
+        for (int slot = totalPods - 1; slot >= 0; slot--) {
+            int k = slotType[slot];
+            double cheapest = Double.POSITIVE_INFINITY;
+
+            for (int i : nodesByCost[k]) {
+                if (active[i]) {
+                    cheapest = cost[k][i];
+                    break;
+                }
+            }
+
+            slotSuffix[slot] = slotSuffix[slot + 1] + cheapest;
+        }
+
+        long steps = 0;
+        int slot = 0;
+        slotPartial[0] = 0.0;
+        slotRank[0] = -1;
+
+        while (slot >= 0) {
+            if (slot == totalPods) {
+                record();
+                slot--;
+                unplace(slot);
+                continue;
+            }
+
+            int k = slotType[slot];
+            int[] order = nodesByCost[k];
+            double threshold = bestObjective * (1 - mipGap) - opening;
+            int placed = -1;
+
+            for (int r = slotRank[slot] + 1; r < numNodes; r++) {
+                int i = order[r];
+
+                if (!active[i] || residual[i] < typeSize[k])
+                    continue;
+
+                /* Later ranks cost at least as much, so none of them can pass either. */
+                if (slotPartial[slot] + cost[k][i] + slotSuffix[slot + 1] >= threshold)
+                    break;
+
+                placed = r;
+                break;
+            }
+
+            if (placed < 0) {
+                slot--;
+                if (slot >= 0)
+                    unplace(slot);
+                continue;
+            }
+
+            if (++steps > LEAF_STEPS)
+                return false;
+
+            int i = order[placed];
+            residual[i] -= typeSize[k];
+            counts[k][i]++;
+            slotRank[slot] = placed;
+            slotPartial[slot + 1] = slotPartial[slot] + cost[k][i];
+            slot++;
+
+            if (slot < totalPods)
+                slotRank[slot] = slotType[slot] == k ? placed - 1 : -1;
+        }
+
+        return true;
+    }
+
+    /* Takes the pod of the slot off its node; the next try of the slot continues from the following rank. */
+    private void unplace(int slot) {
+        int k = slotType[slot];
+        int i = nodesByCost[k][slotRank[slot]];
+
+        residual[i] += typeSize[k];
+        counts[k][i]--;
+    }
+
+    /* Number of the smallest pods whose total usage fits in the capacity. */
+    private int maxSmallestPods(long capacity) {
+        int position = Arrays.binarySearch(smallestPrefix, capacity);
+
+        if (position < 0)
+            return -position - 2;
+
+        /* Equal prefixes only happen for zero usage; take the last one. */
+        while (position + 1 < smallestPrefix.length && smallestPrefix[position + 1] == capacity)
+            position++;
+
+        return position;
+    }
+
+    /* The first free node in branching order, or -1 when every x is fixed. */
+    private int pickBranchNode(byte[] status) {
+        for (int i : branchOrder) {
+            if (status[i] == FREE)
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Greedy incumbent: uses the nodes fixed open, adds free nodes in branching order until they can hold every pod,
+     * and packs the types into them; when fragmentation leaves pods over, one more free node is added and it retries.
+     */
+    private void improveIncumbent(byte[] status) {
+        long activeCapacity = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            active[i] = status[i] == OPEN;
+
+            if (active[i])
+                activeCapacity += state.nodeCapacity[i];
+        }
+
+        int next = 0;
+        boolean oneMore = false;
+
+        while (true) {
+            while (oneMore || activeCapacity < demand || activeCapacity == 0) {
+                while (next < numNodes && status[branchOrder[next]] != FREE)
+                    next++;
+
+                if (next == numNodes)
+                    return;
+
+                active[branchOrder[next]] = true;
+                activeCapacity += state.nodeCapacity[branchOrder[next++]];
+                oneMore = false;
+            }
+
+            if (pack(typesBySize))
+                break;
+
+            oneMore = true;
+        }
+
+        record();
+
+        /* Smallest first keeps more pods on the cheapest nodes, which pays off when fragmentation does not. */
+        if (pack(typesBySizeAscending))
+            record();
+    }
+
+    /* Keeps the packed counts when they beat the incumbent. */
+    private void record() {
+        double objective = 0.0;
+
+        for (int i = 0; i < numNodes; i++) {
+            int pods = 0;
+
+            for (int k = 0; k < numTypes; k++) {
+                pods += counts[k][i];
+                objective += counts[k][i] * cost[k][i];
+            }
+
+            if (pods > 0)
+                objective += state.nodeOpeningCost[i];
+        }
+
+        if (demand == 0)
+            objective = minimumOpeningCost();
+
+        if (objective < bestObjective) {
+            bestObjective = objective;
+
+            for (int k = 0; k < numTypes; k++)
+                System.arraycopy(counts[k], 0, bestCounts[k], 0, numNodes);
+        }
+    }
+
+    /* Packs every type, in the given order, into its cheapest active nodes with room. Returns false when some pods are left over. */
+    private boolean pack(int[] typeOrder) {
+        for (int i = 0; i < numNodes; i++)
+            residual[i] = state.nodeCapacity[i];
+
+        for (int k : typeOrder) {
+            int remaining = typeCount[k];
+            Arrays.fill(counts[k], 0);
+
+            for (int i : nodesByCost[k]) {
+                if (remaining == 0)
+                    break;
+                if (!active[i])
+                    continue;
+
+                int placed = Math.min(remaining, residual[i] / typeSize[k]);
+                counts[k][i] = placed;
+                residual[i] -= placed * typeSize[k];
+                remaining -= placed;
+            }
+
+            if (remaining > 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    private double minimumOpeningCost() {
+        double minimum = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < numNodes; i++)
+            minimum = Math.min(minimum, state.nodeOpeningCost[i]);
+
+        return minimum;
+    }
+
+    /* Splits the best counts per type back into pods and assigns them in the state. */
+    private void writeAssignment() {
+        for (int k = 0; k < numTypes; k++) {
+            int next = typeStart[k];
+
+            for (int i = 0; i < numNodes; i++) {
+                for (int c = 0; c < bestCounts[k][i]; c++)
+                    state.assign(typePods[next++], i);
+            }
+        }
+    }
+
+    private void prepare() {
+        numNodes = state.numNodes;
+
+        PodTypes types = new PodTypes(state);
+        numTypes = types.numTypes;
+        typeSize = types.size;
+        typeCount = types.count;
+        typeStart = types.start;
+        typePods = types.pods;
+        demand = types.demand;
+
+        cost = new double[numTypes][numNodes];
+        nodesByCost = new int[numTypes][];
+
+        for (int k = 0; k < numTypes; k++) {
+            for (int i = 0; i < numNodes; i++)
+                cost[k][i] = state.nodeAllocationCost[i] + state.errorWeight * state.nodePenalization[i] * types.errors[k];
+
+            double[] typeCost = cost[k];
+            nodesByCost[k] = sortedNodes(i -> typeCost[i]);
+        }
+
+        typesBySize = sortedIndices(numTypes, k -> -typeSize[k]);
+        typesBySizeAscending = sortedIndices(numTypes, k -> typeSize[k]);
+
+        double averageSize = state.numPods == 0 ? 1.0 : (double) demand / state.numPods;
+
+        coverOrder = sortedNodes(i -> state.nodeOpeningCost[i] / state.nodeCapacity[i]);
+        allocationOrder = sortedNodes(i -> state.nodeAllocationCost[i]);
+        /* Allocation cost plus the opening cost spread over the pods the node can take. */
+        branchOrder = sortedNodes(i -> state.nodeAllocationCost[i] + state.nodeOpeningCost[i] * averageSize / Math.max(1, Math.min(state.nodeCapacity[i], demand)));
+
+        int[] sizes = Arrays.copyOf(state.podSize, state.numPods);
+        Arrays.sort(sizes);
+        smallestPrefix = new long[state.numPods + 1];
+        for (int m = 0; m < sizes.length; m++)
+            smallestPrefix[m + 1] = smallestPrefix[m] + sizes[m];
+
+        slotType = new int[state.numPods];
+        int slot = 0;
+        for (int k : typesBySize) {
+            for (int c = 0; c < typeCount[k]; c++)
+                slotType[slot++] = k;
+        }
+
+        slotRank = new int[state.numPods];
+        slotPartial = new double[state.numPods + 1];
+        slotSuffix = new double[state.numPods + 1];
+
+        counts = new int[numTypes][numNodes];
+        bestCounts = new int[numTypes][numNodes];
+        residual = new int[numNodes];
+        active = new boolean[numNodes];
+    }
+
+    private int[] sortedNodes(IntToDoubleFunction key) {
+        return sortedIndices(numNodes, key);
+    }
+
+    private static int[] sortedIndices(int count, IntToDoubleFunction key) {
+        Integer[] order = new Integer[count];
+
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+
+        Arrays.sort(order, Comparator.comparingDouble(key::applyAsDouble));
+
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++)
+            sorted[i] = order[i];
+
+        return sorted;
+    }
+
+    private static double elapsed(long startTime) {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Binary snapshot of a ClusterState: the node arrays, the pod arrays and the assignment of every pod, so a time slot
+ * can be reloaded exactly instead of regenerated. Little-endian layout, version 3:
+ *
+ *     int magic 'FPSN', int version, int numNodes, int numPods, double errorWeight,
+ *     int[numNodes] capacity, double[numNodes] opening cost, double[numNodes] allocation cost,
+ *     int[numNodes] error penalization, byte[numNodes] affinity (0 or 1),
+ *     int[numPods] size, int[numPods] errors, int[numPods] node (-1 when pending),
+ *     int numResources, per resource after the first: int[numNodes] capacity, int[numPods] usage,
+ *     long[numNodes] labels, long[numNodes] taints, long[numPods] affinity, long[numPods] anti-affinity,
+ *     long[numPods] tolerations
+ *
+ * Older files are still read: version 2 ends after the resources and has no placement constraints, and version 1
+ * ends after the nodes of the pods and has a single resource as well.
+ * A snapshot is written with one sequential write of a buffer laid out in that order, and read by mapping the file and
+ * copying the arrays out in bulk.
+ */
+class ClusterSnapshot {
+    private static final int MAGIC = 0x4650534e;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 4 * 4 + 8;
+
+    private static long size(int numNodes, int numPods) {
+        return HEADER_BYTES + (long) numNodes * (4 + 8 + 8 + 4 + 1) + (long) numPods * (4 + 4 + 4);
+    }
+
+    private static long resourcesSize(int numNodes, int numPods, int numResources) {
+        return 4 + (long) (numResources - 1) * (numNodes + numPods) * 4;
+    }
+
+    private static long constraintsSize(int numNodes, int numPods) {
+        return (long) numNodes * 2 * 8 + (long) numPods * 3 * 8;
+    }
+
+    public static void write(ClusterState state, Path file) throws IOException {
+        int numNodes = state.numNodes;
+        int numPods = state.numPods;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) (size(numNodes, numPods) + resourcesSize(numNodes, numPods, state.numResources)
+                + constraintsSize(numNodes, numPods)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numNodes).putInt(numPods).putDouble(state.errorWeight);
+
+        /* The bulk puts go through views, which do not move the position of the buffer. */
+        buffer.asIntBuffer().put(state.nodeCapacity, 0, numNodes);
+        buffer.position(buffer.position() + 4 * numNodes);
+        buffer.asDoubleBuffer().put(state.nodeOpeningCost, 0, numNodes);
+        buffer.position(buffer.position() + 8 * numNodes);
+        buffer.asDoubleBuffer().put(state.nodeAllocationCost, 0, numNodes);
+        buffer.position(buffer.position() + 8 * numNodes);
+        buffer.asIntBuffer().put(state.nodePenalization, 0, numNodes);
+        buffer.position(buffer.position() + 4 * numNodes);
+
+        for (int i = 0; i < numNodes; i++)
+            buffer.put((byte) (state.nodeAffinity[i] ? 1 : 0));
+
+        buffer.asIntBuffer().put(state.podSize, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+        buffer.asIntBuffer().put(state.podErrors, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+        buffer.asIntBuffer().put(state.podNode, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+
+        buffer.putInt(state.numResources);
+
+        for (int r = 1; r < state.numResources; r++) {
+            buffer.asIntBuffer().put(state.nodeResourceCapacity[r], 0, numNodes);
+            buffer.position(buffer.position() + 4 * numNodes);
+            buffer.asIntBuffer().put(state.podResource[r], 0, numPods);
+            buffer.position(buffer.position() + 4 * numPods);
+        }
+
+        putLongs(buffer, state.nodeLabels, numNodes);
+        putLongs(buffer, state.nodeTaints, numNodes);
+        putLongs(buffer, state.podAffinity, numPods);
+        putLongs(buffer, state.podAntiAffinity, numPods);
+        putLongs(buffer, state.podTolerations, numPods);
+
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    /*
+     * Loads the snapshot into the state, reusing its arrays, and assigns the pods to their saved nodes so the running
+     * usage and cost of the state match the saved solution.
+     */
+    public static ClusterState read(Path file, ClusterState state) throws IOException {
+        MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IllegalArgumentException(file + " is too short for a cluster snapshot");
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt() != MAGIC)
+            throw new IllegalArgumentException(file + " is not a cluster snapshot");
+
+        int version = buffer.getInt();
+
+        if (version < 1 || version > VERSION)
+            throw new IllegalArgumentException(file + " has snapshot version " + version + ", expected 1 to " + VERSION);
+
+        int numNodes = buffer.getInt();
+        int numPods = buffer.getInt();
+        int numResources = 1;
+
+        if (numNodes >= 0 && numPods >= 0 && version > 1 && buffer.capacity() >= size(numNodes, numPods) + 4)
+            numResources = buffer.getInt((int) size(numNodes, numPods));
+
+        if (numNodes < 0 || numPods < 0 || numResources < 1
+                || buffer.capacity() != size(numNodes, numPods) + (version > 1 ? resourcesSize(numNodes, numPods, numResources) : 0)
+                        + (version > 2 ? constraintsSize(numNodes, numPods) : 0))
+            throw new IllegalArgumentException(file + " does not hold " + numNodes + " nodes and " + numPods + " pods");
+
+        state.errorWeight = buffer.getDouble();
+
+        if (state.numResources != numResources)
+            state.setNumResources(numResources);
+
+        state.resizeNodes(numNodes);
+        state.resizePods(numPods);
+
+        buffer.asIntBuffer().get(state.nodeCapacity, 0, numNodes);
+        buffer.position(buffer.position() + 4 * numNodes);
+        buffer.asDoubleBuffer().get(state.nodeOpeningCost, 0, numNodes);
+        buffer.position(buffer.position() + 8 * numNodes);
+        buffer.asDoubleBuffer().get(state.nodeAllocationCost, 0, numNodes);
+        buffer.position(buffer.position() + 8 * numNodes);
+        buffer.asIntBuffer().get(state.nodePenalization, 0, numNodes);
+        buffer.position(buffer.position() + 4 * numNodes);
+
+        for (int i = 0; i < numNodes; i++)
+            state.nodeAffinity[i] = buffer.get() != 0;
+
+        buffer.asIntBuffer().get(state.podSize, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+        buffer.asIntBuffer().get(state.podErrors, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+
+        int[] podNode = new int[numPods];
+        buffer.asIntBuffer().get(podNode, 0, numPods);
+        buffer.position(buffer.position() + 4 * numPods);
+
+        if (version > 1)
+            buffer.getInt();
+
+        for (int r = 1; r < numResources; r++) {
+            buffer.asIntBuffer().get(state.nodeResourceCapacity[r], 0, numNodes);
+            buffer.position(buffer.position() + 4 * numNodes);
+            buffer.asIntBuffer().get(state.podResource[r], 0, numPods);
+            buffer.position(buffer.position() + 4 * numPods);
+        }
+
+        if (version > 2) {
+            getLongs(buffer, state.nodeLabels, numNodes);
+            getLongs(buffer, state.nodeTaints, numNodes);
+            getLongs(buffer, state.podAffinity, numPods);
+            getLongs(buffer, state.podAntiAffinity, numPods);
+            getLongs(buffer, state.podTolerations, numPods);
+        } else {
+            Arrays.fill(state.nodeLabels, 0, numNodes, 0L);
+            Arrays.fill(state.nodeTaints, 0, numNodes, 0L);
+            Arrays.fill(state.podAffinity, 0, numPods, 0L);
+            Arrays.fill(state.podAntiAffinity, 0, numPods, 0L);
+            Arrays.fill(state.podTolerations, 0, numPods, 0L);
+        }
+
+        state.clearAssignment();
+
+        for (int j = 0; j < numPods; j++) {
+            if (podNode[j] >= numNodes)
+                throw new IllegalArgumentException(file + " assigns pod " + j + " to node " + podNode[j] + " of " + numNodes);
+
+            if (podNode[j] >= 0)
+                state.assign(j, podNode[j]);
+        }
+
+        return state;
+    }
+
+    private static void putLongs(ByteBuffer buffer, long[] values, int count) {
+        buffer.asLongBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + 8 * count);
+    }
+
+    private static void getLongs(ByteBuffer buffer, long[] values, int count) {
+        buffer.asLongBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + 8 * count);
+    }
+}
@@ -0,0 +1,392 @@
+import java.util.Arrays;
+
+/*
+ * Struct-of-arrays view of a cluster for the hot loops. Node i and pod j are positions in the arrays.
+ * The arrays only grow, so reloading the state every time slot does not allocate once the largest slot was seen.
+ *
+ * Pods may request several resources (CPU, memory, ephemeral storage, ...). Resource r is kept dimension-major, in
+ * nodeResourceCapacity[r], nodeResourceUsed[r] and podResource[r], so a check of one resource over all nodes reads
+ * consecutive ints; resource 0 is nodeCapacity, nodeUsed and podSize themselves, so single-resource code is unchanged.
+ *
+ * Placement constraints are bit masks over at most 64 labels and 64 taints: a node has labels and taints, and a pod
+ * may only run on a node that has every label of its affinity, none of its anti-affinity and no taint it does not
+ * tolerate. EligibilityIndex answers the same question for all nodes at once.
+ */
+class ClusterState {
+    int numNodes;
+    int numPods;
+
+    int[] nodeCapacity;
+    int[] nodeUsed;
+    int[] nodePodCount;
+    double[] nodeOpeningCost;
+    double[] nodeAllocationCost;
+    int[] nodePenalization;
+    boolean[] nodeAffinity;
+
+    int[] podSize;
+    int[] podErrors;
+    int[] podNode;
+
+    int numResources = 1;
+    int[][] nodeResourceCapacity;
+    int[][] nodeResourceUsed;
+    int[][] podResource;
+
+    long[] nodeLabels;
+    long[] nodeTaints;
+    long[] podAffinity;
+    long[] podAntiAffinity;
+    long[] podTolerations;
+
+    /*
+     * Weight of the error penalization in allocationCost: 1 for the cost KubeSchedulerTime reports, 0 for the MIP in
+     * CustomMain, whose gamma is zero. Set it before assigning pods, since the running cost uses it.
+     */
+    double errorWeight = 1.0;
+
+    /* Kept up to date by assign and unassign, so the cost of a slot is known without a pass over the arrays. */
+    private int usedNodes;
+    private int assignedPods;
+    private double totalCost;
+
+    public ClusterState(int expectedNodes, int expectedPods) {
+        nodeCapacity = new int[expectedNodes];
+        nodeUsed = new int[expectedNodes];
+        nodePodCount = new int[expectedNodes];
+        nodeOpeningCost = new double[expectedNodes];
+        nodeAllocationCost = new double[expectedNodes];
+        nodePenalization = new int[expectedNodes];
+        nodeAffinity = new boolean[expectedNodes];
+        nodeLabels = new long[expectedNodes];
+        nodeTaints = new long[expectedNodes];
+
+        podSize = new int[expectedPods];
+        podErrors = new int[expectedPods];
+        podNode = new int[expectedPods];
+        podAffinity = new long[expectedPods];
+        podAntiAffinity = new long[expectedPods];
+        podTolerations = new long[expectedPods];
+
+        nodeResourceCapacity = new int[][]{nodeCapacity};
+        nodeResourceUsed = new int[][]{nodeUsed};
+        podResource = new int[][]{podSize};
+    }
+
+    /* Sets the number of resources; the amounts of the resources added are zero until set. */
+    public void setNumResources(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("A cluster has at least one resource, not " + count);
+
+        nodeResourceCapacity = Arrays.copyOf(nodeResourceCapacity, count);
+        nodeResourceUsed = Arrays.copyOf(nodeResourceUsed, count);
+        podResource = Arrays.copyOf(podResource, count);
+
+        for (int r = numResources; r < count; r++) {
+            nodeResourceCapacity[r] = new int[nodeCapacity.length];
+            nodeResourceUsed[r] = new int[nodeCapacity.length];
+            podResource[r] = new int[podSize.length];
+        }
+
+        numResources = count;
+    }
+
+    public void setNodeResource(int i, int r, int capacity) {
+        nodeResourceCapacity[r][i] = capacity;
+    }
+
+    public void setPodResource(int j, int r, int usage) {
+        podResource[r][j] = usage;
+    }
+
+    public void setNodeLabels(int i, long labels, long taints) {
+        nodeLabels[i] = labels;
+        nodeTaints[i] = taints;
+    }
+
+    public void setPodConstraints(int j, long affinity, long antiAffinity, long tolerations) {
+        podAffinity[j] = affinity;
+        podAntiAffinity[j] = antiAffinity;
+        podTolerations[j] = tolerations;
+    }
+
+    /* A state with the same nodes, pods and error weight and no pod assigned, for searches that run side by side. */
+    public ClusterState copyInstance() {
+        ClusterState copy = new ClusterState(numNodes, numPods);
+        copy.resizeNodes(numNodes);
+        copy.resizePods(numPods);
+        copy.errorWeight = errorWeight;
+        copy.setNumResources(numResources);
+
+        for (int i = 0; i < numNodes; i++)
+            copy.setNode(i, nodeCapacity[i], nodeOpeningCost[i], nodeAllocationCost[i], nodePenalization[i], nodeAffinity[i]);
+
+        for (int j = 0; j < numPods; j++)
+            copy.setPod(j, podSize[j], podErrors[j]);
+
+        System.arraycopy(nodeLabels, 0, copy.nodeLabels, 0, numNodes);
+        System.arraycopy(nodeTaints, 0, copy.nodeTaints, 0, numNodes);
+        System.arraycopy(podAffinity, 0, copy.podAffinity, 0, numPods);
+        System.arraycopy(podAntiAffinity, 0, copy.podAntiAffinity, 0, numPods);
+        System.arraycopy(podTolerations, 0, copy.podTolerations, 0, numPods);
+
+        for (int r = 1; r < numResources; r++) {
+            System.arraycopy(nodeResourceCapacity[r], 0, copy.nodeResourceCapacity[r], 0, numNodes);
+            System.arraycopy(podResource[r], 0, copy.podResource[r], 0, numPods);
+        }
+
+        copy.clearAssignment();
+        return copy;
+    }
+
+    public void resizeNodes(int count) {
+        if (count > nodeCapacity.length) {
+            int length = Math.max(count, nodeCapacity.length * 2);
+            nodeCapacity = Arrays.copyOf(nodeCapacity, length);
+            nodeUsed = Arrays.copyOf(nodeUsed, length);
+            nodePodCount = Arrays.copyOf(nodePodCount, length);
+            nodeOpeningCost = Arrays.copyOf(nodeOpeningCost, length);
+            nodeAllocationCost = Arrays.copyOf(nodeAllocationCost, length);
+            nodePenalization = Arrays.copyOf(nodePenalization, length);
+            nodeAffinity = Arrays.copyOf(nodeAffinity, length);
+            nodeLabels = Arrays.copyOf(nodeLabels, length);
+            nodeTaints = Arrays.copyOf(nodeTaints, length);
+
+            nodeResourceCapacity[0] = nodeCapacity;
+            nodeResourceUsed[0] = nodeUsed;
+
+            for (int r = 1; r < numResources; r++) {
+                nodeResourceCapacity[r] = Arrays.copyOf(nodeResourceCapacity[r], length);
+                nodeResourceUsed[r] = Arrays.copyOf(nodeResourceUsed[r], length);
+            }
+        }
+        numNodes = count;
+    }
+
+    public void resizePods(int count) {
+        if (count > podSize.length) {
+            int length = Math.max(count, podSize.length * 2);
+            podSize = Arrays.copyOf(podSize, length);
+            podErrors = Arrays.copyOf(podErrors, length);
+            podNode = Arrays.copyOf(podNode, length);
+            podAffinity = Arrays.copyOf(podAffinity, length);
+            podAntiAffinity = Arrays.copyOf(podAntiAffinity, length);
+            podTolerations = Arrays.copyOf(podTolerations, length);
+
+            podResource[0] = podSize;
+
+            for (int r = 1; r < numResources; r++)
+                podResource[r] = Arrays.copyOf(podResource[r], length);
+        }
+        numPods = count;
+    }
+
+    public void setNode(int i, int capacity, double openingCost, double allocationCost, int errorPenalization, boolean affinity) {
+        nodeCapacity[i] = capacity;
+        nodeOpeningCost[i] = openingCost;
+        nodeAllocationCost[i] = allocationCost;
+        nodePenalization[i] = errorPenalization;
+        nodeAffinity[i] = affinity;
+    }
+
+    public void setPod(int j, int size, int errors) {
+        podSize[j] = size;
+        podErrors[j] = errors;
+    }
+
+    /* Unassigns every pod and empties every node. */
+    public void clearAssignment() {
+        for (int r = 0; r < numResources; r++)
+            Arrays.fill(nodeResourceUsed[r], 0, numNodes, 0);
+
+        Arrays.fill(nodePodCount, 0, numNodes, 0);
+        Arrays.fill(podNode, 0, numPods, -1);
+        usedNodes = 0;
+        assignedPods = 0;
+        totalCost = 0.0;
+    }
+
+    /* Appends an unassigned pod and returns its position; its other resources are zero and it has no constraints until set. */
+    public int addPod(int size, int errors) {
+        int j = numPods;
+        resizePods(numPods + 1);
+        setPod(j, size, errors);
+        podNode[j] = -1;
+        setPodConstraints(j, 0, 0, 0);
+
+        for (int r = 1; r < numResources; r++)
+            podResource[r][j] = 0;
+
+        return j;
+    }
+
+    /*
+     * Unassigns pod j and moves the last pod into its position, so removal is O(1).
+     * Returns the former position of the moved pod, or -1 when j was the last one.
+     */
+    public int removePod(int j) {
+        unassign(j);
+
+        int last = numPods - 1;
+        numPods--;
+
+        if (j == last)
+            return -1;
+
+        podSize[j] = podSize[last];
+        podErrors[j] = podErrors[last];
+        podNode[j] = podNode[last];
+        setPodConstraints(j, podAffinity[last], podAntiAffinity[last], podTolerations[last]);
+
+        for (int r = 1; r < numResources; r++)
+            podResource[r][j] = podResource[r][last];
+
+        return last;
+    }
+
+    /* Appends an empty node and returns its position; its other resources are zero and it has no labels until set. */
+    public int addNode(int capacity, double openingCost, double allocationCost, int errorPenalization, boolean affinity) {
+        int i = numNodes;
+        resizeNodes(numNodes + 1);
+        setNode(i, capacity, openingCost, allocationCost, errorPenalization, affinity);
+        setNodeLabels(i, 0, 0);
+        nodePodCount[i] = 0;
+
+        for (int r = 0; r < numResources; r++) {
+            nodeResourceUsed[r][i] = 0;
+
+            if (r > 0)
+                nodeResourceCapacity[r][i] = 0;
+        }
+
+        return i;
+    }
+
+    /*
+     * Removes node i, which must have no pod, and moves the last node into its position, as removePod does with pods.
+     * The pods of the moved node follow it, which takes a pass over the pods. Returns the former position of the moved
+     * node, or -1 when i was the last one.
+     */
+    public int removeNode(int i) {
+        if (nodePodCount[i] > 0)
+            throw new IllegalStateException("Node " + i + " still runs " + nodePodCount[i] + " pods");
+
+        int last = numNodes - 1;
+        numNodes--;
+
+        if (i == last)
+            return -1;
+
+        setNode(i, nodeCapacity[last], nodeOpeningCost[last], nodeAllocationCost[last], nodePenalization[last], nodeAffinity[last]);
+        setNodeLabels(i, nodeLabels[last], nodeTaints[last]);
+        nodePodCount[i] = nodePodCount[last];
+
+        for (int r = 0; r < numResources; r++) {
+            nodeResourceCapacity[r][i] = nodeResourceCapacity[r][last];
+            nodeResourceUsed[r][i] = nodeResourceUsed[r][last];
+        }
+
+        for (int j = 0; j < numPods; j++) {
+            if (podNode[j] == last)
+                podNode[j] = i;
+        }
+
+        return last;
+    }
+
+    /* Residual of resource 0, the one the single-resource schedulers and solvers look at. */
+    public int residual(int i) {
+        return nodeCapacity[i] - nodeUsed[i];
+    }
+
+    /* Whether pod j fits in the residual of node i in every resource. */
+    public boolean fits(int j, int i) {
+        if (nodeUsed[i] + podSize[j] > nodeCapacity[i])
+            return false;
+
+        for (int r = 1; r < numResources; r++) {
+            if (nodeResourceUsed[r][i] + podResource[r][j] > nodeResourceCapacity[r][i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /* Whether the constraints of pod j allow node i, whatever its residual. */
+    public boolean eligible(int j, int i) {
+        return (nodeLabels[i] & podAffinity[j]) == podAffinity[j]
+                && (nodeLabels[i] & podAntiAffinity[j]) == 0
+                && (nodeTaints[i] & ~podTolerations[j]) == 0;
+    }
+
+    /* Whether some pod has an affinity or anti-affinity or some node a taint, i.e. whether eligible can be false. */
+    public boolean hasPlacementConstraints() {
+        for (int i = 0; i < numNodes; i++) {
+            if (nodeTaints[i] != 0)
+                return true;
+        }
+
+        for (int j = 0; j < numPods; j++) {
+            if (podAffinity[j] != 0 || podAntiAffinity[j] != 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    public void assign(int j, int i) {
+        podNode[j] = i;
+        nodeUsed[i] += podSize[j];
+
+        for (int r = 1; r < numResources; r++)
+            nodeResourceUsed[r][i] += podResource[r][j];
+
+        assignedPods++;
+        totalCost += allocationCost(i, j);
+
+        if (nodePodCount[i]++ == 0) {
+            usedNodes++;
+            totalCost += nodeOpeningCost[i];
+        }
+    }
+
+    public void unassign(int j) {
+        int i = podNode[j];
+
+        if (i < 0)
+            return;
+
+        podNode[j] = -1;
+        nodeUsed[i] -= podSize[j];
+
+        for (int r = 1; r < numResources; r++)
+            nodeResourceUsed[r][i] -= podResource[r][j];
+
+        assignedPods--;
+        totalCost -= allocationCost(i, j);
+
+        if (--nodePodCount[i] == 0) {
+            usedNodes--;
+            totalCost -= nodeOpeningCost[i];
+        }
+    }
+
+    /* Allocation cost of pod j on node i, including the weighted error penalization. */
+    public double allocationCost(int i, int j) {
+        return nodeAllocationCost[i] + errorWeight * nodePenalization[i] * podErrors[j];
+    }
+
+    public int usedNodes() {
+        return usedNodes;
+    }
+
+    /* Pods currently on a node; fewer than numPods when the scheduler left some pending. */
+    public int assignedPods() {
+        return assignedPods;
+    }
+
+    /* Opening cost of every used node plus the allocation cost of every assigned pod. */
+    public double totalCost() {
+        return totalCost;
+    }
+}
@@ -2,24 +2,37 @@
 
 import gurobi.*;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 class Pod {
-    private int resourceUsage;
+    /* Usage of each resource (CPU, memory, ephemeral storage, ...); resource 0 is the resource usage of a single-resource pod. */
+    private int[] resourceUsage;
     private int index;
     private int errors;
+    /* Labels the node must have and must not have and the taints of a node the pod tolerates, see ClusterState. */
+    private long affinity;
+    private long antiAffinity;
+    private long tolerations;
 
     public Pod(int resourceUsage, int index, int errors) {
+        this(new int[]{resourceUsage}, index, errors);
+    }
+
+    public Pod(int[] resourceUsage, int index, int errors) {
         this.resourceUsage = resourceUsage;
         this.index = index;
         this.errors = errors;
     }
 
     public int getResourceUsage() {
-        return resourceUsage;
+        return resourceUsage[0];
+    }
+
+    /* Usage of resource r, zero for the resources the pod does not request. */
+    public int getResourceUsage(int r) {
+        return r < resourceUsage.length ? resourceUsage[r] : 0;
     }
 
     public int getErrors() {
@@ -29,19 +42,46 @@ class Pod {
     public int getIndex() {
         return index;
     }
+
+    public void setConstraints(long affinity, long antiAffinity, long tolerations) {
+        this.affinity = affinity;
+        this.antiAffinity = antiAffinity;
+        this.tolerations = tolerations;
+    }
+
+    public long getAffinity() {
+        return affinity;
+    }
+
+    public long getAntiAffinity() {
+        return antiAffinity;
+    }
+
+    public long getTolerations() {
+        return tolerations;
+    }
 }
 
 class Node implements Comparable<Node> {
-    private int capacity;
+    /* Capacity and use of each resource, as in Pod. */
+    private int[] capacity;
+    private int[] usedCapacity;
     private List<Pod> pods;
     private int index;
     private double openingCost;
     private double allocationCost;
     private int errorPenalization;
     private boolean nodeAffinity;
+    private long labels;
+    private long taints;
 
     public Node(int capacity, int index, double openingCost, double allocationCost, int errorPenalization, boolean nodeAffinity) {
+        this(new int[]{capacity}, index, openingCost, allocationCost, errorPenalization, nodeAffinity);
+    }
+
+    public Node(int[] capacity, int index, double openingCost, double allocationCost, int errorPenalization, boolean nodeAffinity) {
         this.capacity = capacity;
+        this.usedCapacity = new int[capacity.length];
         this.pods = new ArrayList<>();
         this.index = index;
         this.openingCost = openingCost;
@@ -51,7 +91,15 @@ class Node implements Comparable<Node> {
     }
 
     public int getCapacity() {
-        return capacity;
+        return capacity[0];
+    }
+
+    public int getCapacity(int r) {
+        return capacity[r];
+    }
+
+    public int getNumResources() {
+        return capacity.length;
     }
 
     public double getOpeningCost() {
@@ -70,13 +118,52 @@ class Node implements Comparable<Node> {
         return nodeAffinity;
     }
 
+    public void setLabels(long labels, long taints) {
+        this.labels = labels;
+        this.taints = taints;
+    }
+
+    public long getLabels() {
+        return labels;
+    }
+
+    public long getTaints() {
+        return taints;
+    }
+
+    public int getUsedCapacity() {
+        return usedCapacity[0];
+    }
+
+    public int getResidualCapacity() {
+        return capacity[0] - usedCapacity[0];
+    }
+
+    /* The used capacity is maintained by allocatePod, deallocatePod and clear, so the check does not walk the pods. */
     public boolean canAllocatePod(Pod pod) {
-        int totalPodsSize = pods.stream().mapToInt(Pod::getResourceUsage).sum();
-        return totalPodsSize + pod.getResourceUsage() <= capacity;
+        for (int r = 0; r < capacity.length; r++) {
+            if (usedCapacity[r] + pod.getResourceUsage(r) > capacity[r])
+                return false;
+        }
+
+        return true;
     }
 
     public void allocatePod(Pod pod) {
         pods.add(pod);
+
+        for (int r = 0; r < capacity.length; r++)
+            usedCapacity[r] += pod.getResourceUsage(r);
+    }
+
+    public boolean deallocatePod(Pod pod) {
+        if (!pods.remove(pod))
+            return false;
+
+        for (int r = 0; r < capacity.length; r++)
+            usedCapacity[r] -= pod.getResourceUsage(r);
+
+        return true;
     }
 
     public List<Pod> getPods() {
@@ -89,6 +176,7 @@ class Node implements Comparable<Node> {
 
     public void clear() {
         pods.clear();
+        Arrays.fill(usedCapacity, 0);
     }
 
     public int compareTo(Node nodeTemp) {
@@ -107,7 +195,25 @@ class Instance {
 
     /* Create the data structures and generate random data. */
     private List<Node> nodes = new ArrayList<>(numNodes);
-    private List<Pod> pods = new ArrayList<>(numPods);
+
+    /*
+     * Live pods are kept densely in podPool; removing a pod moves the last one into its place, so churn is O(1) per pod.
+     * Ids come from nextPodId and are never reused, and podPositions maps each id to its position in the pool, or -1 once removed.
+     */
+    private Pod[] podPool = new Pod[16];
+    private int podCount;
+    private int nextPodId;
+    private int[] podPositions = new int[16];
+
+    /* Pods added and removed by the last call to modifyNumberPods. */
+    private PodChangeLog changeLog = new PodChangeLog();
+
+    /* Resources of every pod and node; the ones after the first are drawn like it, see createNodes and createPod. */
+    private int numResources = 1;
+
+    /* Labels and taints the nodes may have and the pods may ask for, at most 64 each; none by default. */
+    private int numLabels;
+    private int numTaints;
 
     long seed = 100;
     Random random = new Random(seed);
@@ -164,42 +270,216 @@ class Instance {
         return random.nextBoolean();
     }
 
+    /* Sets the resources of the pods and nodes created from now on. */
+    public void setNumResources(int numResources) {
+        this.numResources = numResources;
+    }
+
+    /* Sets the labels and taints of the pods and nodes created from now on. */
+    public void setPlacementConstraints(int numLabels, int numTaints) {
+        if (numLabels < 0 || numLabels > Long.SIZE || numTaints < 0 || numTaints > Long.SIZE)
+            throw new IllegalArgumentException("Labels and taints are between 0 and " + Long.SIZE + ", not " + numLabels + " and " + numTaints);
+
+        this.numLabels = numLabels;
+        this.numTaints = numTaints;
+    }
+
+    /* Every label with probability 1/2 and every taint with probability 1/4. */
+    private void drawLabels(Node node) {
+        long labels = numLabels > 0 ? random.nextLong() & mask(numLabels) : 0;
+        long taints = numTaints > 0 ? random.nextLong() & random.nextLong() & mask(numTaints) : 0;
+
+        node.setLabels(labels, taints);
+    }
+
+    /* An affinity to one label for a pod in four, an anti-affinity to another for one in four, every taint tolerated with probability 1/2. */
+    private void drawConstraints(Pod pod) {
+        long affinity = 0;
+        long antiAffinity = 0;
+        long tolerations = 0;
+
+        if (numLabels > 0) {
+            if (random.nextInt(4) == 0)
+                affinity = 1L << random.nextInt(numLabels);
+            if (random.nextInt(4) == 0)
+                antiAffinity = (1L << random.nextInt(numLabels)) & ~affinity;
+        }
+
+        if (numTaints > 0)
+            tolerations = random.nextLong() & mask(numTaints);
+
+        pod.setConstraints(affinity, antiAffinity, tolerations);
+    }
+
+    private static long mask(int bits) {
+        return bits == Long.SIZE ? -1L : (1L << bits) - 1;
+    }
+
     public void createNodes() {
         /* Create nodes using random data. */
         for (int i = 0; i < numNodes; i++) {
-            Node node = new Node(getCapacity(), i, getOpeningCost(), getAllocationCost(), getErrorPenalization(), getNodeAffinity());
+            int[] capacity = new int[numResources];
+            capacity[0] = getCapacity();
+
+            Node node = new Node(capacity, i, getOpeningCost(), getAllocationCost(), getErrorPenalization(), getNodeAffinity());
             nodes.add(node);
 
+            /* The other resources are drawn last, so a single-resource instance keeps the random data it always had. */
+            for (int r = 1; r < numResources; r++)
+                capacity[r] = getCapacity();
+
+            drawLabels(node);
         }
     }
 
     public void createPods() {
         /* Create pods using random data. */
         for (int j = 0; j < numPods; j++) {
-            Pod pod = new Pod(getResourceUsage(), j, getErrors());
-            pods.add(pod);
+            addPod(createPod());
         }
     }
 
+    private Pod createPod() {
+        int[] usage = new int[numResources];
+        usage[0] = getResourceUsage();
+
+        Pod pod = new Pod(usage, nextPodId++, getErrors());
+
+        for (int r = 1; r < numResources; r++)
+            usage[r] = getResourceUsage();
+
+        drawConstraints(pod);
+        return pod;
+    }
+
     public List<Node> getNodes() {
         return nodes;
     }
 
+    /* A view of the live pods in pool order; it is invalidated by the next modifyNumberPods. */
     public List<Pod> getPods() {
-        return pods;
+        return Arrays.asList(podPool).subList(0, podCount);
+    }
+
+    /* Returns the live pod with the given id, or null when it was removed. */
+    public Pod getPod(int id) {
+        int position = podPositions[id];
+        return position < 0 ? null : podPool[position];
+    }
+
+    public PodChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    private void addPod(Pod pod) {
+        if (podCount == podPool.length)
+            podPool = Arrays.copyOf(podPool, podPool.length * 2);
+
+        int id = pod.getIndex();
+        if (id >= podPositions.length)
+            podPositions = Arrays.copyOf(podPositions, Math.max(id + 1, podPositions.length * 2));
+
+        podPositions[id] = podCount;
+        podPool[podCount++] = pod;
+    }
+
+    private Pod removePod(int position) {
+        Pod pod = podPool[position];
+        Pod last = podPool[--podCount];
+
+        podPool[position] = last;
+        podPositions[last.getIndex()] = position;
+        podPool[podCount] = null;
+        podPositions[pod.getIndex()] = -1;
+
+        return pod;
+    }
+
+    /* Copies the nodes and pods into the arrays of the state, with every pod unassigned. */
+    public void loadInto(ClusterState state) {
+        if (state.numResources != numResources)
+            state.setNumResources(numResources);
+
+        state.resizeNodes(nodes.size());
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            state.setNode(i, node.getCapacity(), node.getOpeningCost(), node.getAllocationCost(), node.getErrorPenalization(), node.getNodeAffinity());
+
+            for (int r = 1; r < numResources; r++)
+                state.setNodeResource(i, r, node.getCapacity(r));
+
+            state.setNodeLabels(i, node.getLabels(), node.getTaints());
+        }
+
+        state.resizePods(podCount);
+
+        for (int j = 0; j < podCount; j++) {
+            Pod pod = podPool[j];
+            state.setPod(j, pod.getResourceUsage(), pod.getErrors());
+
+            for (int r = 1; r < numResources; r++)
+                state.setPodResource(j, r, pod.getResourceUsage(r));
+
+            state.setPodConstraints(j, pod.getAffinity(), pod.getAntiAffinity(), pod.getTolerations());
+        }
+
+        state.clearAssignment();
+    }
+
+    /*
+     * Replaces the nodes and pods with those of the state, e.g. one read from a ClusterSnapshot. The random data
+     * of later slots comes from the seed again, not from where the dumped run had got to.
+     */
+    public void loadFrom(ClusterState state) {
+        nodes.clear();
+        numResources = state.numResources;
+
+        for (int i = 0; i < state.numNodes; i++) {
+            int[] capacity = new int[numResources];
+
+            for (int r = 0; r < numResources; r++)
+                capacity[r] = state.nodeResourceCapacity[r][i];
+
+            Node node = new Node(capacity, i, state.nodeOpeningCost[i], state.nodeAllocationCost[i], state.nodePenalization[i], state.nodeAffinity[i]);
+            node.setLabels(state.nodeLabels[i], state.nodeTaints[i]);
+            nodes.add(node);
+        }
+
+        while (podCount > 0)
+            removePod(podCount - 1);
+
+        for (int j = 0; j < state.numPods; j++) {
+            int[] usage = new int[numResources];
+
+            for (int r = 0; r < numResources; r++)
+                usage[r] = state.podResource[r][j];
+
+            Pod pod = new Pod(usage, nextPodId++, state.podErrors[j]);
+            pod.setConstraints(state.podAffinity[j], state.podAntiAffinity[j], state.podTolerations[j]);
+            addPod(pod);
+        }
+
+        numNodes = state.numNodes;
+        numPods = state.numPods;
+        changeLog.clear();
     }
 
     public void modifyNumberPods() {
         int minValue = (int) (numPods * 0.05);
-        int maxValue = (int) (numPods * 0.30);
+        /* Keeps the bound of nextInt above its origin once the slots have shrunk a small instance to a few pods. */
+        int maxValue = Math.max(minValue + 1, (int) (numPods * 0.30));
 
         int modification = random.nextInt(minValue, maxValue);
         boolean randomBoolean = random.nextBoolean();
 
+        changeLog.clear();
+
         if(randomBoolean) {
             for(int i = 0; i < modification; i++) {
-                Pod pod = new Pod(getResourceUsage(), numPods + i, getErrors());
-                pods.add(pod);
+                Pod pod = createPod();
+                addPod(pod);
+                changeLog.recordAdded(pod.getIndex());
             }
 
             numPods += modification;
@@ -207,7 +487,7 @@ class Instance {
         else {
             for(int i = 0; i < modification; i++) {
                 int randomIndex = random.nextInt(0, numPods);
-                pods.remove(randomIndex);
+                changeLog.recordRemoved(removePod(randomIndex).getIndex());
                 numPods--;
             }
         }
@@ -237,6 +517,21 @@ class KubeScheduler {
         return null;
     }
 
+    /* Prepares the scheduler for a state whose assignment was changed outside it, e.g. after ClusterState.clearAssignment. */
+    public void reset(ClusterState state) {
+    }
+
+    /* First-fit on the arrays of the state. Returns the position of the node the pod was assigned to, or -1. */
+    public int schedulePod(ClusterState state, int pod) {
+        for (int i = 0; i < state.numNodes; i++) {
+            if (state.fits(pod, i)) {
+                state.assign(pod, i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
     // public Node schedulePod(Pod pod) {
     //     Node randomNode = getRandomNode();
     //     while (randomNode != null && !randomNode.canAllocatePod(pod)) {
@@ -251,6 +546,347 @@ class KubeScheduler {
 }
 
 
+/*
+ * Keeps one Gurobi environment and model for the whole time horizon. Between time slots only the y columns, the
+ * AtendimentoPod_j and AlocacaoNoAberto constraints and the CapacidadeNo_i coefficients of the pods that changed are edited.
+ *
+ * Like GurobiPlacementSolver, the model is built with the array calls of Gurobi: one addVars with the columns of a pod
+ * for all its y and one addConstrs for its linking rows. Names are only set with names = true. Linking is
+ * disaggregated, y_ij <= x_i per node and pod, or aggregated, sum_j y_ij <= n x_i per node with n the live pods, whose
+ * coefficient is updated once per slot. The memory estimate of GurobiPlacementSolver is checked before every load
+ * and apply: over the budget, the first load falls back to the aggregated linking, and a model still over it is refused.
+ */
+class GurobiSession {
+    private GRBEnv env;
+    private GRBModel model;
+
+    private boolean names;
+    private boolean aggregatedLinking;
+    private double memoryBudget;
+
+    private int numNodes;
+    private int numPods;
+    private GRBVar[] x;
+    private GRBConstr[] capacityConstrs;
+    /* One row per node with the aggregated linking, null with the disaggregated one. */
+    private GRBConstr[] linkingConstrs;
+
+    /* Indexed by pod id; ids are never reused, so removed pods leave null entries. */
+    private GRBVar[][] yById = new GRBVar[16][];
+    private GRBConstr[] assignmentById = new GRBConstr[16];
+    private GRBConstr[][] linkingById = new GRBConstr[16][];
+
+    private double[] beta;
+    /* errorWeight times the error penalization of each node; zero in CustomMain, whose gamma is zero. */
+    private double[] penalization;
+    private char[] binaryNodes;
+
+    /* memoryBudget is in bytes. */
+    public GurobiSession(double mipGap, boolean names, boolean aggregatedLinking, double memoryBudget) throws GRBException {
+        this.names = names;
+        this.aggregatedLinking = aggregatedLinking;
+        this.memoryBudget = memoryBudget;
+
+        env = new GRBEnv();
+        model = new GRBModel(env);
+        model.set(GRB.StringAttr.ModelName, "nodePodsAllocation");
+        model.set(GRB.DoubleParam.MIPGap, mipGap);
+        model.set(GRB.IntAttr.ModelSense, GRB.MINIMIZE);
+    }
+
+    public GRBModel getModel() {
+        return model;
+    }
+
+    public GRBVar[] getNodeVars() {
+        return x;
+    }
+
+    /* The y column of the pod with the given id, one variable per node. */
+    public GRBVar[] getPodVars(int id) {
+        return yById[id];
+    }
+
+    /* Builds the node part of the model from the state and adds a column for every live pod of the instance. */
+    public void load(Instance instance, ClusterState state) throws GRBException {
+        numNodes = state.numNodes;
+        numPods = 0;
+        beta = Arrays.copyOf(state.nodeAllocationCost, numNodes);
+        penalization = new double[numNodes];
+
+        for (int i = 0; i < numNodes; ++i)
+            penalization[i] = state.errorWeight * state.nodePenalization[i];
+
+        int pods = instance.getPods().size();
+
+        if (!aggregatedLinking && estimateBytes(pods, false) > memoryBudget) {
+            System.out.println("The disaggregated linking needs about " + estimateBytes(pods, false) / (1 << 20) + " MB; linking per node instead");
+            aggregatedLinking = true;
+        }
+
+        checkBudget(pods);
+
+        binaryNodes = new char[numNodes];
+        Arrays.fill(binaryNodes, GRB.BINARY);
+
+        x = model.addVars(null, null, Arrays.copyOf(state.nodeOpeningCost, numNodes), binaryNodes, names ? GurobiPlacementSolver.names("x_", numNodes) : null);
+
+        GRBLinExpr somatorio = new GRBLinExpr();
+        double[] ones = new double[numNodes];
+        Arrays.fill(ones, 1.0);
+        somatorio.addTerms(ones, x);
+
+        model.addConstr(somatorio, GRB.GREATER_EQUAL, 1, names ? "MinimoNodes" : null);
+
+        /* sum_j u_j y_ij - U_i x_i <= 0; the pod terms are added with their columns. */
+        GRBLinExpr[] capacidade = new GRBLinExpr[numNodes];
+
+        for (int i = 0; i < numNodes; ++i) {
+            capacidade[i] = new GRBLinExpr();
+            capacidade[i].addTerm(-state.nodeCapacity[i], x[i]);
+        }
+
+        capacityConstrs = model.addConstrs(capacidade, GurobiPlacementSolver.senses(GRB.LESS_EQUAL, numNodes), new double[numNodes],
+                names ? GurobiPlacementSolver.names("CapacidadeNo_", numNodes) : null);
+
+        /* sum_j y_ij - n x_i <= 0; the pod terms come with their columns and n with updateLinking. */
+        if (aggregatedLinking) {
+            GRBLinExpr[] linking = new GRBLinExpr[numNodes];
+
+            for (int i = 0; i < numNodes; ++i)
+                linking[i] = new GRBLinExpr();
+
+            linkingConstrs = model.addConstrs(linking, GurobiPlacementSolver.senses(GRB.LESS_EQUAL, numNodes), new double[numNodes],
+                    names ? GurobiPlacementSolver.names("AlocacaoNoAberto_", numNodes) : null);
+        }
+
+        for (Pod pod : instance.getPods())
+            addPod(pod);
+
+        updateLinking();
+    }
+
+    /* Applies the change log of the last modifyNumberPods to the model. */
+    public void apply(Instance instance) throws GRBException {
+        PodChangeLog changeLog = instance.getChangeLog();
+
+        checkBudget(numPods - changeLog.getRemovedCount() + changeLog.getAddedCount());
+
+        for (int k = 0; k < changeLog.getRemovedCount(); k++)
+            removePod(changeLog.getRemoved(k));
+
+        for (int k = 0; k < changeLog.getAddedCount(); k++)
+            addPod(instance.getPod(changeLog.getAdded(k)));
+
+        updateLinking();
+    }
+
+    public void addPod(Pod pod) throws GRBException {
+        int id = pod.getIndex();
+        ensureId(id);
+
+        /* The constraint is created empty and filled by the columns of the pod's y variables. */
+        GRBConstr assignment = model.addConstr(new GRBLinExpr(), GRB.EQUAL, 1, names ? "AtendimentoPod_" + id : null);
+
+        GRBColumn[] columns = new GRBColumn[numNodes];
+        double[] allocation = new double[numNodes];
+
+        for (int i = 0; i < numNodes; ++i) {
+            columns[i] = new GRBColumn();
+            columns[i].addTerm(1.0, assignment);
+            columns[i].addTerm(pod.getResourceUsage(), capacityConstrs[i]);
+
+            if (linkingConstrs != null)
+                columns[i].addTerm(1.0, linkingConstrs[i]);
+
+            allocation[i] = beta[i] + penalization[i] * pod.getErrors();
+        }
+
+        GRBVar[] y = model.addVars(null, null, allocation, binaryNodes, columns, names ? podNames("y_", id) : null);
+
+        if (linkingConstrs == null) {
+            GRBLinExpr[] linking = new GRBLinExpr[numNodes];
+
+            for (int i = 0; i < numNodes; ++i) {
+                linking[i] = new GRBLinExpr();
+                linking[i].addTerm(1.0, y[i]);
+                linking[i].addTerm(-1.0, x[i]);
+            }
+
+            linkingById[id] = model.addConstrs(linking, GurobiPlacementSolver.senses(GRB.LESS_EQUAL, numNodes), new double[numNodes],
+                    names ? podNames("AlocacaoNoAberto_", id) : null);
+        }
+
+        yById[id] = y;
+        assignmentById[id] = assignment;
+        numPods++;
+    }
+
+    public void removePod(int id) throws GRBException {
+        for (int i = 0; i < numNodes; ++i) {
+            if (linkingById[id] != null)
+                model.remove(linkingById[id][i]);
+            model.remove(yById[id][i]);
+        }
+        model.remove(assignmentById[id]);
+
+        yById[id] = null;
+        assignmentById[id] = null;
+        linkingById[id] = null;
+        numPods--;
+    }
+
+    public void dispose() throws GRBException {
+        model.dispose();
+        env.dispose();
+    }
+
+    /* Sets n, the live pods, as the coefficient of x_i in the aggregated linking rows, in one call. */
+    private void updateLinking() throws GRBException {
+        if (linkingConstrs == null)
+            return;
+
+        double[] coefficients = new double[numNodes];
+        Arrays.fill(coefficients, -numPods);
+
+        model.chgCoeffs(linkingConstrs, x, coefficients);
+    }
+
+    private long estimateBytes(int pods, boolean aggregated) {
+        return GurobiPlacementSolver.estimateBytes(numNodes, pods, (long) numNodes * pods, 1, aggregated, names);
+    }
+
+    /* Refuses to grow the model to the given pods when it would go over the memory budget. */
+    private void checkBudget(int pods) {
+        if (estimateBytes(pods, aggregatedLinking) > memoryBudget)
+            throw new IllegalStateException("The persistent model of " + numNodes + " nodes and " + pods + " pods needs about "
+                    + estimateBytes(pods, aggregatedLinking) / (1 << 20) + " MB, over the budget of " + (long) memoryBudget / (1 << 20) + " MB");
+    }
+
+    /* prefix + i + "," + id for every node i. */
+    private String[] podNames(String prefix, int id) {
+        String[] podNames = new String[numNodes];
+
+        for (int i = 0; i < numNodes; ++i)
+            podNames[i] = prefix + i + "," + id;
+
+        return podNames;
+    }
+
+    private void ensureId(int id) {
+        if (id < yById.length)
+            return;
+
+        int length = Math.max(id + 1, yById.length * 2);
+        yById = Arrays.copyOf(yById, length);
+        assignmentById = Arrays.copyOf(assignmentById, length);
+        linkingById = Arrays.copyOf(linkingById, length);
+    }
+}
+
+
+/*
+ * Seeds the Start attributes of x and y before a solve: pods still alive from the previous slot start on the node the
+ * previous optimal solution gave them, and the remaining pods on the node first-fit picks. Pods left without a start
+ * have their y Start undefined, so Gurobi completes the partial start.
+ */
+class WarmStart {
+    private boolean fromHeuristic;
+    private boolean fromPrevious;
+
+    /* Node of each pod id in the last solution, or -1. */
+    private int[] previousNodeById = new int[0];
+
+    public WarmStart(boolean fromHeuristic, boolean fromPrevious) {
+        this.fromHeuristic = fromHeuristic;
+        this.fromPrevious = fromPrevious;
+    }
+
+    /* Assigns the start placement in the state and copies it to the Start attributes; podVars[j] is the y column of pod position j. */
+    public void seed(Instance instance, ClusterState state, KubeScheduler scheduler, GRBModel model, GRBVar[] x, GRBVar[][] podVars) throws GRBException {
+        List<Pod> pods = instance.getPods();
+
+        if (fromPrevious) {
+            for (int j = 0; j < state.numPods; j++) {
+                int id = pods.get(j).getIndex();
+                int node = id < previousNodeById.length ? previousNodeById[id] : -1;
+
+                if (node >= 0 && state.fits(j, node))
+                    state.assign(j, node);
+            }
+        }
+
+        if (fromHeuristic) {
+            scheduler.reset(state);
+
+            for (int j = 0; j < state.numPods; j++) {
+                if (state.podNode[j] < 0)
+                    scheduler.schedulePod(state, j);
+            }
+        }
+
+        double[] start = new double[state.numNodes];
+
+        for (int i = 0; i < state.numNodes; i++)
+            start[i] = state.nodePodCount[i] > 0 ? 1.0 : 0.0;
+
+        model.set(GRB.DoubleAttr.Start, x, start);
+
+        for (int j = 0; j < state.numPods; j++) {
+            int node = state.podNode[j];
+
+            for (int i = 0; i < state.numNodes; i++)
+                start[i] = node < 0 ? GRB.UNDEFINED : (i == node ? 1.0 : 0.0);
+
+            model.set(GRB.DoubleAttr.Start, podVars[j], start);
+        }
+    }
+
+    /* Remembers the node of every pod in the solution just found, for the next slot. */
+    public void record(Instance instance, GRBModel model, GRBVar[][] podVars) throws GRBException {
+        List<Pod> pods = instance.getPods();
+
+        for (int j = 0; j < podVars.length; j++) {
+            int id = pods.get(j).getIndex();
+
+            if (id >= previousNodeById.length) {
+                int length = Math.max(id + 1, previousNodeById.length * 2);
+                int oldLength = previousNodeById.length;
+                previousNodeById = Arrays.copyOf(previousNodeById, length);
+                Arrays.fill(previousNodeById, oldLength, length, -1);
+            }
+
+            double[] values = model.get(GRB.DoubleAttr.X, podVars[j]);
+            previousNodeById[id] = -1;
+
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] > 0.5)
+                    previousNodeById[id] = i;
+            }
+        }
+    }
+}
+
+/* Records the solver time at which the first incumbent was found. */
+class IncumbentTimer extends GRBCallback {
+    private double firstIncumbentTime = -1.0;
+
+    public double getFirstIncumbentTime() {
+        return firstIncumbentTime;
+    }
+
+    @Override
+    protected void callback() {
+        try {
+            if (where == GRB.CB_MIPSOL && firstIncumbentTime < 0)
+                firstIncumbentTime = getDoubleInfo(GRB.CB_RUNTIME);
+        } catch (GRBException e) {
+            System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
+        }
+    }
+}
+
+
 public class CustomMain {
     public static void main(String[] args) throws GRBException, IOException {
 
@@ -260,12 +896,72 @@ public class CustomMain {
 
         int numberExecutions = 10;
 
+        /* Arguments are given as key=value; session=persistent keeps one model across the time slots. */
+        boolean persistentSession = option(args, "session", "rebuild").equals("persistent");
+
+        /* warmstart=heuristic, previous or both seeds the solve from first-fit and/or the previous slot's solution. */
+        String warmStartOption = option(args, "warmstart", "none");
+        WarmStart warmStart = warmStartOption.equals("none") ? null
+                : new WarmStart(!warmStartOption.equals("previous"), !warmStartOption.equals("heuristic"));
+
+        /*
+         * formulation=aggregated solves with integer counts per node and pod type instead of a y per node and pod;
+         * formulation=sparse starts every pod with its candidates best nodes (default 10) and adds the other columns
+         * on demand.
+         */
+        String formulation = option(args, "formulation", "pods");
+        boolean aggregated = formulation.equals("aggregated");
+
+        if (aggregated && (persistentSession || warmStart != null))
+            throw new IllegalArgumentException("formulation=aggregated rebuilds the model every slot and has no warm start");
+
+        /*
+         * solver=bnb solves with the dependency-free branch-and-bound instead of Gurobi, solver=multistart with the
+         * parallel heuristic on threads workers (all cores by default) doing starts starts each (0: until the time
+         * limit) from seed; timelimit is in seconds.
+         */
+        String solver = option(args, "solver", "gurobi");
+        double timeLimit = Double.parseDouble(option(args, "timelimit", String.valueOf(GRB.INFINITY)));
+        PlacementSolver placementSolver = null;
+
+        if (solver.equals("bnb"))
+            placementSolver = new BranchAndBoundSolver(0.03, timeLimit);
+        else if (solver.equals("multistart"))
+            placementSolver = new MultiStartSolver(0.03, timeLimit,
+                    Integer.parseInt(option(args, "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                    Integer.parseInt(option(args, "starts", "8")), Long.parseLong(option(args, "seed", "0")));
+
+        if (placementSolver != null && (persistentSession || warmStart != null || aggregated))
+            throw new IllegalArgumentException("solver=" + solver + " has no persistent session, warm start or aggregated formulation");
+
+        if (formulation.equals("sparse")) {
+            if (placementSolver != null || persistentSession || warmStart != null)
+                throw new IllegalArgumentException("formulation=sparse solves with Gurobi and has no persistent session or warm start");
+
+            placementSolver = new SparseFormulation(0.03, timeLimit, Integer.parseInt(option(args, "candidates", "10")));
+        }
+
+        /*
+         * names=true names the variables and constraints of the pod-level model, for debugging; linking=aggregated links
+         * y to x with one row per node instead of one per node and pod; modelmemory=<MB> caps the estimated size of the
+         * model, switching to the per-node linking and then, without a session or warm start, to formulation=aggregated.
+         */
+        boolean modelNames = Boolean.parseBoolean(option(args, "names", "false"));
+        boolean aggregatedLinking = option(args, "linking", "disaggregated").equals("aggregated");
+        double modelMemory = Double.parseDouble(option(args, "modelmemory", "Infinity")) * (1 << 20);
+
+        /* load=<file> starts from the instance of a ClusterSnapshot; dump=<dir> writes each slot with its solution there. */
+        String snapshotPath = option(args, "load", "");
+        String dumpDirectory = option(args, "dump", "");
+
         //FileWriter writerKubescheduler = new FileWriter(new File("kubescheduler.csv"));
-        FileWriter writerFormulation = new FileWriter(new File("formulation.csv"));
+        /* columnar=true also writes the rows to the binary columnar file formulation.col. */
+        boolean columnar = Boolean.parseBoolean(option(args, "columnar", "false"));
+        ResultSink sinkFormulation = new ResultSink(Path.of("formulation.csv"), columnar ? Path.of("formulation.col") : null,
+                "time slot", "number of pods", "used Nodes", "solution cost", "time (ms)", "model build (ms)", "warm start", "first incumbent (ms)", "solve time (ms)", "status");
         //FileWriter writerPodsPending = new FileWriter(new File("podspending.csv"));
 
         //writerKubescheduler.write("number of pods; number of nodes; solution cost; time (ms) \n");
-        writerFormulation.write("time slot; number of pods; used Nodes; solution cost; time (ms) \n");
         //writerPodsPending.write("number of pods; number of nodes; slot of time; pending pods \n");
 
         //TODO timeslot
@@ -291,9 +987,40 @@ public class CustomMain {
 
         Instance instance = new Instance(numPods, numNodes);
 
-        instance.createPods();
+        /* resources=<n> gives pods and nodes n resources, each with its capacity rows in the pod-level model. */
+        int numResources = Integer.parseInt(option(args, "resources", "1"));
+
+        /*
+         * labels=<n> and taints=<n> give the nodes labels and taints and the pods affinities, anti-affinities and
+         * tolerations; the pod-level model only has a y for the pairs they allow, see EligibilityIndex.
+         */
+        int numLabels = Integer.parseInt(option(args, "labels", "0"));
+        int numTaints = Integer.parseInt(option(args, "taints", "0"));
+        boolean placementConstraints = numLabels > 0 || numTaints > 0;
+
+        if (snapshotPath.isEmpty()) {
+            instance.setNumResources(numResources);
+            instance.setPlacementConstraints(numLabels, numTaints);
+
+            instance.createPods();
+
+            instance.createNodes();
+        } else {
+            ClusterState snapshot = ClusterSnapshot.read(Path.of(snapshotPath), new ClusterState(0, 0));
+            instance.loadFrom(snapshot);
+            numResources = snapshot.numResources;
+            placementConstraints = snapshot.hasPlacementConstraints();
+
+            System.out.println("Loaded " + snapshotPath + " with " + instance.getPods().size() + " pods and " + instance.getNodes().size() + " nodes");
+        }
+
+        /* The other models and solvers know the first resource only. */
+        if (numResources > 1 && (persistentSession || !formulation.equals("pods") || placementSolver != null))
+            throw new IllegalArgumentException("With " + numResources + " resources only the pod-level model without a persistent session is solved");
 
-        instance.createNodes();
+        /* The other models, the session and the warm starts let every pod take every node. */
+        if (placementConstraints && (persistentSession || warmStart != null || !formulation.equals("pods") || placementSolver != null))
+            throw new IllegalArgumentException("With placement constraints only the pod-level model without a persistent session or warm start is solved");
 
         /* Perform computational experiments with respect to the time horizon. */
 
@@ -309,13 +1036,33 @@ public class CustomMain {
 
         TreeSet<Node> openedNodes = new TreeSet<>();
 
+        /* The model arrays are read from the state, whose arrays are reused across time slots. */
+        ClusterState state = new ClusterState(numNodes, numPods);
+
+        /* gamma is zero in the model, so the cost of the state must leave the error penalization out as well. */
+        state.errorWeight = 0.0;
+
+        /* Creates the environment once, so the license is checked out a single time for the whole horizon. */
+        GurobiSession session = persistentSession ? new GurobiSession(0.03, modelNames, aggregatedLinking, modelMemory) : null;
+
+        /* Time of every phase of every slot, written to formulation-latency.csv at the end. */
+        LatencyHistogram loadLatency = new LatencyHistogram("instance load");
+        LatencyHistogram buildLatency = new LatencyHistogram("model build");
+        LatencyHistogram solveLatency = new LatencyHistogram("solve");
+        LatencyHistogram resultLatency = new LatencyHistogram("result read");
+        LatencyHistogram outputLatency = new LatencyHistogram("output");
+        LatencyHistogram mutationLatency = new LatencyHistogram("instance mutation");
+
         while (timeSlot < totalTime) {
 
-            List<Node> nodes = instance.getNodes();
-            List<Pod> pods = instance.getPods();
+            long loadStart = System.nanoTime();
 
-            numNodes = nodes.size();
-            numPods = pods.size();
+            instance.loadInto(state);
+
+            loadLatency.record(System.nanoTime() - loadStart);
+
+            numNodes = state.numNodes;
+            numPods = state.numPods;
 
             //allocation.clear();
             //openedNodes.clear();
@@ -385,158 +1132,97 @@ public class CustomMain {
 
             /* Perform computational experiments with respect to the Mixed Integer Programming formulation. */
 
-            try {
-
-                double e[] = new double[numPods];
-
-                for(int i = 0; i < numPods; i++)
-                    e[i] = 0.0;
+            if (placementSolver != null) {
+                PlacementResult result = null;
 
-                double gamma[] = new double[numNodes];
+                long startTime = System.nanoTime();
 
-                for(int i = 0; i < numNodes; i++)
-                    gamma[i] = 0.0;
-
-                /* Builds the alpha array containing nodes' opening costs. */
-                double alpha[] = new double[numNodes];
-
-                for(int i = 0; i < numNodes; i++)
-                {
-                    Node tempNode = nodes.get(i);
-                    alpha[i] = tempNode.getOpeningCost();
-                }
-
-                /* Builds the beta array containing pods' allocation costs. */
-                double beta[] = new double[numNodes];
-
-                for(int i = 0; i < numNodes; i++)
-                {
-                    Node tempNode = nodes.get(i);
-                    beta[i] = tempNode.getAllocationCost();
+                for (int i = 0; i < numberExecutions; i++) {
+                    long solveStart = System.nanoTime();
+                    result = placementSolver.solve(state);
+                    solveLatency.record(System.nanoTime() - solveStart);
                 }
 
-                /* Builds the capacity array containing nodes' capacities. */
-                double U[] = new double[numNodes];
+                long outputStart = System.nanoTime();
 
-                for(int i = 0; i < numNodes; i++)
-                {
-                    Node tempNode = nodes.get(i);
-                    U[i] = tempNode.getCapacity();
-                }
+                double elapsedTime = (System.nanoTime() - startTime) / 1e6 / numberExecutions;
 
-                /* Builds the usage array containing pods' resource usages. */
-                double u[] = new double[numPods];
-                for(int j = 0; j < numPods; j++)
-                {
-                    Pod tempPod = pods.get(j);
-                    u[j] = tempPod.getResourceUsage();
-                }
-
-                /* Creates the model. */
-                GRBEnv env = new GRBEnv();
-                GRBModel model = new GRBModel(env);
-                model.set(GRB.StringAttr.ModelName, "nodePodsAllocation");
-                model.set(GRB.DoubleParam.MIPGap, 0.03);
-
-                //restricao 5, para falar que x é binario
-                GRBVar[] x = new GRBVar[numNodes];
-
-                for (int i = 0; i < numNodes; ++i)
-                {
-                    x[i] = model.addVar(0.0, 1.0, 0.0, GRB.BINARY, "x_" + i);
-                }
-
-                // Se um pod j é atendido por um node i
-                GRBVar[][] y = new GRBVar[numNodes][numPods];
-
-                //restricao 6, para falar que y é binario
-                for (int i = 0; i < numNodes; ++i)
-                {
-                    for (int j = 0; j < numPods; ++j)
-                    {
-                        y[i][j] = model.addVar(0.0, 1.0, 0.0, GRB.BINARY, "y_" + i + "," + j);
-                    }
-                }
-
-                // MINIMIZAR A FUNÇÃO OBJETIVO
-                model.set(GRB.IntAttr.ModelSense, GRB.MINIMIZE);
-
-
-                // Montar expressão linear da fun obj
-                GRBLinExpr funcaoObjetivo = new GRBLinExpr();
-
-                for(int i = 0; i < numNodes; i++)
-                {
-                    funcaoObjetivo.addTerm(alpha[i], x[i]);
-
-                    for(int j = 0; j < numPods; j++)
-                    {
-                        funcaoObjetivo.addTerm(beta[i], y[i][j]);
-                        funcaoObjetivo.addTerm(gamma[i] * e[j], y[i][j]);
-                    }
-                }
+                System.out.println("Solution Cost: " + result.getObjective() + " (gap " + result.getGap() + ", status " + result.getStatusName() + ")");
+                System.out.println("Total time taken: " + elapsedTime + " ms");
 
-                model.setObjective(funcaoObjetivo, GRB.MINIMIZE);
+                /* These solvers build their models inside solve and do not time their first incumbent. A slot without a solution has no cost or used nodes. */
+                sinkFormulation.add(timeSlot).add(numPods);
 
-                // Criação da restrição 1
+                if (result.hasSolution())
+                    sinkFormulation.add(state.usedNodes()).add(result.getObjective());
+                else
+                    sinkFormulation.add("-").add("-");
 
-                GRBLinExpr somatorio = new GRBLinExpr();
+                sinkFormulation.add(elapsedTime).add(0.0).add(warmStartOption).add("-").add(result.getRuntime() * 1000).add(result.getStatusName()).endRow();
+                sinkFormulation.flush();
 
-                for (int i = 0; i < numNodes; ++i)
-                {
-                    somatorio.addTerm(1.0, x[i]);
-                }
+                if (!dumpDirectory.isEmpty())
+                    ClusterSnapshot.write(state, Path.of(dumpDirectory, "slot-" + timeSlot + ".snap"));
 
-                model.addConstr(somatorio, GRB.GREATER_EQUAL, 1, "MinimoNodes");
+                outputLatency.record(System.nanoTime() - outputStart);
 
-                // Criação da restrição 2
+                long mutationStart = System.nanoTime();
 
-                for (int i = 0; i < numNodes; ++i)
-                {
-                    for (int j = 0; j < numPods; ++j)
-                    {
-                        model.addConstr(y[i][j], GRB.LESS_EQUAL, x[i], "AlocacaoNoAberto_" + i + "," + j);
-                    }
+                instance.modifyNumberPods();
 
-                }
+                mutationLatency.record(System.nanoTime() - mutationStart);
 
-                // Criação da restrição 3
+                timeSlot++;
+                continue;
+            }
 
-                GRBLinExpr somatorio_Y;
+            /* Disposed in the finally below, whatever the solve gave; the model of the session outlives the slot. */
+            GRBEnv env = null;
+            AggregatedFormulation aggregatedFormulation = null;
 
-                for (int j = 0; j < numPods; ++j)
-                {
-                    somatorio_Y = new GRBLinExpr();
+            /* Checks the memory budget of the pod-level model and, when it fits, builds it; set as gurobiSolver once built. */
+            GurobiPlacementSolver podSolver = new GurobiPlacementSolver(0.03, timeLimit, modelNames, aggregatedLinking, modelMemory);
 
-                    for (int i = 0; i < numNodes; ++i)
-                    {
-                        somatorio_Y.addTerm(1.0, y[i][j]);
-                    }
+            try {
 
-                    model.addConstr(somatorio_Y, GRB.EQUAL, 1, "AtendimentoPod_" + j);
+                long buildStart = System.nanoTime();
+
+                GRBModel model;
+                GRBVar[] x;
+                GRBVar[][] y = null;
+                GurobiPlacementSolver gurobiSolver = null;
+
+                if (session != null) {
+                    /* The session keeps the model of the previous slot and only applies the pods that changed. */
+                    if (timeSlot == 0)
+                        session.load(instance, state);
+                    else
+                        session.apply(instance);
+
+                    model = session.getModel();
+                    x = session.getNodeVars();
+                } else if (aggregated || (warmStart == null && state.numResources == 1 && !placementConstraints && !podSolver.fitsBudget(state))) {
+                    if (!aggregated)
+                        System.out.println("The pod-level model is over " + option(args, "modelmemory", "") + " MB; solving the aggregated formulation");
+
+                    env = new GRBEnv();
+                    aggregatedFormulation = new AggregatedFormulation(env, state, 0.03);
+                    model = aggregatedFormulation.getModel();
+                    x = aggregatedFormulation.getNodeVars();
+
+                    System.out.println("Pod types: " + aggregatedFormulation.getNumTypes());
+                } else {
+                    gurobiSolver = podSolver;
+                    gurobiSolver.build(state);
+                    model = gurobiSolver.getModel();
+                    x = gurobiSolver.getNodeVars();
+                    y = gurobiSolver.getAssignmentVars();
                 }
 
-                // Criação da restrição 4
-
-                GRBLinExpr somatorio_U;
+                model.set(GRB.DoubleParam.TimeLimit, timeLimit);
 
-                GRBLinExpr capacidadeParaNoAberto;
-
-                for (int i = 0; i < numNodes; ++i)
-                {
-                    somatorio_U = new GRBLinExpr();
-
-                    capacidadeParaNoAberto = new GRBLinExpr();
-
-                    for (int j = 0; j < numPods; ++j)
-                    {
-                        somatorio_U.addTerm(u[j], y[i][j]);
-                    }
-
-                    capacidadeParaNoAberto.addTerm(U[i], x[i]);
-
-                    model.addConstr(somatorio_U, GRB.LESS_EQUAL, capacidadeParaNoAberto, "CapacidadeNo_" + i);
-                }
+                long buildTime = System.nanoTime() - buildStart;
+                buildLatency.record(buildTime);
 
                 // // resto do código anterior. faz sentido?
                 // for (int i = 0; i < nNodes; ++i) {
@@ -562,31 +1248,112 @@ public class CustomMain {
                 // Resolver 'root relaxation'
                 //model.set(GRB.IntParam.Method, GRB.METHOD_BARRIER);
 
-                long startTime = System.currentTimeMillis();
+                /* The y column of each pod position, used to set and read the warm start. */
+                GRBVar[][] podVars = null;
+
+                if (warmStart != null) {
+                    podVars = new GRBVar[numPods][];
+
+                    for (int j = 0; j < numPods; j++) {
+                        if (session != null) {
+                            podVars[j] = session.getPodVars(instance.getPods().get(j).getIndex());
+                        } else {
+                            podVars[j] = new GRBVar[numNodes];
+
+                            for (int i = 0; i < numNodes; i++)
+                                podVars[j][i] = y[i][j];
+                        }
+                    }
+
+                    warmStart.seed(instance, state, kubeScheduler, model, x, podVars);
+                }
+
+                IncumbentTimer incumbentTimer = new IncumbentTimer();
+                model.setCallback(incumbentTimer);
+
+                double solveTime = 0.0;
+
+                long startTime = System.nanoTime();
 
                 for (int i = 0; i < numberExecutions; i++)
                 {
                     // Resolve
+                    long solveStart = System.nanoTime();
                     model.optimize();
+                    solveLatency.record(System.nanoTime() - solveStart);
+
+                    if (i == 0)
+                        solveTime = model.get(GRB.DoubleAttr.Runtime) * 1000;
                 }
 
                 // Schedule pods and measure the time taken
-                long endTime = System.currentTimeMillis();
+                long endTime = System.nanoTime();
 
-                long elapsedTime = (endTime - startTime) / numberExecutions;
+                double elapsedTime = (endTime - startTime) / 1e6 / numberExecutions;
 
                 // Imprime solução
 
-                System.out.println("Solution Cost: " + model.get(GRB.DoubleAttr.ObjVal));
+                /* ObjVal and X exist only with an incumbent, which a time limit may cut off. */
+                int status = GurobiPlacementSolver.placementStatus(model);
+                boolean solved = model.get(GRB.IntAttr.SolCount) > 0;
+
+                if (solved)
+                    System.out.println("Solution Cost: " + model.get(GRB.DoubleAttr.ObjVal));
+                else
+                    System.out.println("No solution (status " + PlacementResult.statusName(status) + ")");
+
                 System.out.println("Total time taken: " + elapsedTime + " ms");
+                System.out.println("Model build time: " + buildTime / 1e6 + " ms");
+                System.out.println("First incumbent after " + incumbentTimer.getFirstIncumbentTime() * 1000 + " ms (warm start: " + warmStartOption + ")");
 
-                for (int i = 0; i < numNodes; ++i) {
-                    if (x[i].get(GRB.DoubleAttr.X) == 1.0) {
-                        usedNodes++;
+                long resultStart = System.nanoTime();
+
+                /* Without a solution the previous slot's nodes stay the warm start and the state is left unassigned. */
+                if (solved && warmStart != null)
+                    warmStart.record(instance, model, podVars);
+
+                /* Reads the solution into the state, splitting the aggregated counts per pod type back into pods. */
+                if (gurobiSolver != null)
+                    gurobiSolver.readResult();
+                else if (!solved)
+                    state.clearAssignment();
+                else if (aggregatedFormulation != null)
+                    aggregatedFormulation.disaggregate();
+
+                if (solved) {
+                    for (int i = 0; i < numNodes; ++i) {
+                        if (x[i].get(GRB.DoubleAttr.X) == 1.0) {
+                            usedNodes++;
+                        }
                     }
                 }
 
-                writerFormulation.write(timeSlot + "; " + numPods + "; " + usedNodes + "; " + model.get(GRB.DoubleAttr.ObjVal) + "; " + elapsedTime + "\n");
+                resultLatency.record(System.nanoTime() - resultStart);
+
+                long outputStart = System.nanoTime();
+
+                sinkFormulation.add(timeSlot).add(numPods);
+
+                if (solved)
+                    sinkFormulation.add(usedNodes).add(model.get(GRB.DoubleAttr.ObjVal));
+                else
+                    sinkFormulation.add("-").add("-");
+
+                sinkFormulation.add(elapsedTime).add(buildTime / 1e6).add(warmStartOption);
+
+                if (incumbentTimer.getFirstIncumbentTime() >= 0)
+                    sinkFormulation.add(incumbentTimer.getFirstIncumbentTime() * 1000);
+                else
+                    sinkFormulation.add("-");
+
+                sinkFormulation.add(solveTime).add(PlacementResult.statusName(status)).endRow();
+                sinkFormulation.flush();
+
+                /* The persistent session does not read its solution into the state, so its snapshots hold no assignment. */
+                if (!dumpDirectory.isEmpty())
+                    ClusterSnapshot.write(state, Path.of(dumpDirectory, "slot-" + timeSlot + ".snap"));
+
+                outputLatency.record(System.nanoTime() - outputStart);
 
                     /*System.out.println("SOLUÇÃO:");
 
@@ -604,28 +1371,58 @@ public class CustomMain {
                       }
                     }*/
 
+            } catch (GRBException e) {
+                System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
+
+                /* The slot is given up rather than retried, which would fail the same way. */
+                sinkFormulation.add(timeSlot).add(numPods).add("-").add("-").add("-").add("-").add(warmStartOption).add("-").add("-")
+                        .add("error " + e.getErrorCode()).endRow();
+            } finally {
                 // Dispose no modelo e ambiente
 
-                model.dispose();
-                env.dispose();
+                try {
+                    podSolver.dispose();
 
-                instance.modifyNumberPods();
+                    if (aggregatedFormulation != null)
+                        aggregatedFormulation.dispose();
+                    if (env != null)
+                        env.dispose();
+                } catch (GRBException e) {
+                    System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
+                }
+            }
 
-                timeSlot++;
-                usedNodes = 0;
+            long mutationStart = System.nanoTime();
 
-            } catch (GRBException e) {
-                System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
-            }
+            instance.modifyNumberPods();
+
+            mutationLatency.record(System.nanoTime() - mutationStart);
+
+            timeSlot++;
+            usedNodes = 0;
 
             //writerKubescheduler.flush();
-            writerFormulation.flush();
+            sinkFormulation.flush();
             //writerPodsPending.flush();
         }
 
 
+        if (session != null)
+            session.dispose();
+
         //writerKubescheduler.close();
-        writerFormulation.close();
+        sinkFormulation.close();
+
+        LatencyHistogram.write("formulation-latency.csv", loadLatency, buildLatency, solveLatency, resultLatency, outputLatency, mutationLatency);
         //writerPodsPending.close();
     }
+
+    /* Returns the value of a key=value argument, or the default when it is absent. */
+    static String option(String[] args, String key, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(key + "="))
+                return arg.substring(key.length() + 1);
+        }
+        return defaultValue;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+/*
+ * Pending events of ClusterSimulator, earliest first and, at the same time, in the order they were scheduled, so a run
+ * is reproducible. An event is a time, a kind and a subject (a pod id, a node, ...) kept in parallel arrays of a binary
+ * heap, so scheduling and taking one is O(log n) without an object per event. The event taken last stays readable
+ * through getTime, getKind and getSubject until the next poll.
+ */
+class EventQueue {
+    private long[] time = new long[16];
+    private long[] sequence = new long[16];
+    private int[] kind = new int[16];
+    private int[] subject = new int[16];
+    private int size;
+    private long nextSequence;
+
+    private long polledTime;
+    private int polledKind;
+    private int polledSubject;
+
+    public void schedule(long at, int eventKind, int eventSubject) {
+        if (size == time.length) {
+            int length = time.length * 2;
+            time = Arrays.copyOf(time, length);
+            sequence = Arrays.copyOf(sequence, length);
+            kind = Arrays.copyOf(kind, length);
+            subject = Arrays.copyOf(subject, length);
+        }
+
+        long order = nextSequence++;
+        int k = size++;
+
+        /* Moves the parents down until the hole reaches the place of the new event. */
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+
+            if (time[parent] < at || time[parent] == at && sequence[parent] < order)
+                break;
+
+            set(k, parent);
+            k = parent;
+        }
+
+        time[k] = at;
+        sequence[k] = order;
+        kind[k] = eventKind;
+        subject[k] = eventSubject;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Time of the earliest event; the queue must not be empty. */
+    public long peekTime() {
+        return time[0];
+    }
+
+    /* Takes the earliest event; the queue must not be empty. */
+    public void poll() {
+        polledTime = time[0];
+        polledKind = kind[0];
+        polledSubject = subject[0];
+
+        int last = --size;
+
+        if (last == 0)
+            return;
+
+        long at = time[last];
+        long order = sequence[last];
+        int k = 0;
+
+        /* Moves the earlier child up until the hole reaches the place of the last event. */
+        while (true) {
+            int child = 2 * k + 1;
+
+            if (child >= last)
+                break;
+
+            if (child + 1 < last && (time[child + 1] < time[child] || time[child + 1] == time[child] && sequence[child + 1] < sequence[child]))
+                child++;
+
+            if (at < time[child] || at == time[child] && order < sequence[child])
+                break;
+
+            set(k, child);
+            k = child;
+        }
+
+        set(k, last);
+    }
+
+    public long getTime() {
+        return polledTime;
+    }
+
+    public int getKind() {
+        return polledKind;
+    }
+
+    public int getSubject() {
+        return polledSubject;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void set(int to, int from) {
+        time[to] = time[from];
+        sequence[to] = sequence[from];
+        kind[to] = kind[from];
+        subject[to] = subject[from];
+    }
+}
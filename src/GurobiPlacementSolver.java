@@ -0,0 +1,437 @@
+import gurobi.*;
+
+import java.util.Arrays;
+
+/*
+ * The pod-level model of CustomMain behind the PlacementSolver interface: a binary x per node and a binary y per node
+ * and pod. build creates the environment and the model, so callers that time or warm-start the solve can reach the
+ * variables before optimizing, and then dispose; solve builds, optimizes, writes the assignment to the state and
+ * disposes in one call.
+ *
+ * The model is built with the array calls of Gurobi, one per node or one for all nodes instead of one per cell, and the
+ * costs go in as the objective coefficients of the variables, so no objective expression is built. The coefficient of
+ * y_ij is ClusterState.allocationCost, the weighted error penalization included, so ObjVal is the totalCost of the
+ * state; with the zero errorWeight of CustomMain it is the allocation cost alone. Variables and constraints are only named with names = true, for debugging.
+ *
+ * Every resource of the state has its capacity rows, CapacidadeNo_i for the first and CapacidadeNo_r<r>_i for the others.
+ * Only the pairs EligibilityIndex allows get a y, so pods never reach the solver on nodes their affinity, anti-affinity
+ * or taints rule out, and the model and its memory estimate shrink with the pairs left out.
+ *
+ * Linking y to x is either disaggregated, y_ij <= x_i for every node and pod, or aggregated, sum_j y_ij <= n_i * x_i
+ * per node with n_i the pods node i may take: far fewer rows, with a weaker LP relaxation. Before building, the size of the model is estimated; over the
+ * memory budget the disaggregated linking falls back to the aggregated one, and a model still over it is refused.
+ */
+class GurobiPlacementSolver implements PlacementSolver {
+    /*
+     * Rough bytes per variable, constraint, nonzero and name, for the Gurobi model and the Java handles together. The
+     * estimate is meant to catch models that cannot fit, not to predict the memory of the solve.
+     */
+    private static final long VAR_BYTES = 80;
+    private static final long CONSTR_BYTES = 64;
+    private static final long NONZERO_BYTES = 24;
+    private static final long NAME_BYTES = 64;
+
+    private double mipGap;
+    private double timeLimit;
+    private boolean names;
+    private boolean aggregatedLinking;
+    private double memoryBudget;
+
+    private ClusterState state;
+    private GRBEnv env;
+    private GRBModel model;
+    private GRBVar[] x;
+    private GRBVar[][] y;
+
+    /* Pods each node may take by the eligibility index, and their y; every pod when the state has no placement constraints. */
+    private EligibilityIndex eligibility = new EligibilityIndex();
+    private int[][] rowPods;
+    private int[] columnLength;
+    private GRBVar[][] rowVars;
+
+    /*
+     * The state fitsBudget last counted the pairs of, and the count; the build of that state that follows uses them and
+     * the rows instead of a second eligibility pass. The state must not change in between.
+     */
+    private ClusterState countedState;
+    private long countedPairs;
+
+    /* Unnamed, disaggregated linking and no memory budget. */
+    public GurobiPlacementSolver(double mipGap, double timeLimit) {
+        this(mipGap, timeLimit, false, false, Double.POSITIVE_INFINITY);
+    }
+
+    /* memoryBudget is in bytes. */
+    public GurobiPlacementSolver(double mipGap, double timeLimit, boolean names, boolean aggregatedLinking, double memoryBudget) {
+        this.mipGap = mipGap;
+        this.timeLimit = timeLimit;
+        this.names = names;
+        this.aggregatedLinking = aggregatedLinking;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /* Builds, optimizes and reads the result, then frees the model and environment, on the error path as well. */
+    public PlacementResult solve(ClusterState state) {
+        try {
+            build(state);
+            model.optimize();
+            return readResult();
+        } catch (GRBException e) {
+            throw new IllegalStateException("Error code: " + e.getErrorCode() + ". " + e.getMessage(), e);
+        } finally {
+            try {
+                dispose();
+            } catch (GRBException e) {
+                System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
+            }
+        }
+    }
+
+    /* Estimated bytes of the model for the given size and options; cells is the number of y variables. */
+    public static long estimateBytes(int numNodes, int numPods, long cells, int numResources, boolean aggregatedLinking, boolean names) {
+        long linkingRows = aggregatedLinking ? numNodes : cells;
+        long linkingNonzeros = aggregatedLinking ? cells + numNodes : 2 * cells;
+
+        long vars = numNodes + cells;
+        long constrs = 1 + numPods + (long) numResources * numNodes + linkingRows;
+        long nonzeros = numNodes + cells + numResources * (cells + numNodes) + linkingNonzeros;
+
+        return vars * VAR_BYTES + constrs * CONSTR_BYTES + nonzeros * NONZERO_BYTES + (names ? (vars + constrs) * NAME_BYTES : 0);
+    }
+
+    /* Whether the model of the state fits the memory budget with some linking, i.e. whether build would accept it. */
+    public boolean fitsBudget(ClusterState state) {
+        countedPairs = eligiblePairs(state);
+        countedState = state;
+
+        return estimateBytes(state.numNodes, state.numPods, countedPairs, state.numResources, true, names) <= memoryBudget;
+    }
+
+    /*
+     * Sets rowPods to the pods each node may take, in position order, and columnLength to the nodes each pod may take;
+     * returns the number of pairs, the y variables of the model.
+     */
+    private long eligiblePairs(ClusterState state) {
+        int numNodes = state.numNodes;
+        int numPods = state.numPods;
+
+        eligibility.build(state);
+
+        /* Pods that may run anywhere, most of them in a typical instance, need no bitset. */
+        long[][] podNodes = new long[numPods][];
+        int[] rowLength = new int[numNodes];
+        columnLength = new int[numPods];
+        long pairs = 0;
+
+        for (int j = 0; j < numPods; j++) {
+            if (eligibility.allEligible(state, j)) {
+                columnLength[j] = numNodes;
+            } else {
+                podNodes[j] = new long[EligibilityIndex.words(numNodes)];
+                columnLength[j] = eligibility.eligibleNodes(state, j, podNodes[j]);
+            }
+
+            pairs += columnLength[j];
+        }
+
+        for (int j = 0; j < numPods; j++) {
+            for (int i = 0; i < numNodes; i++) {
+                if (podNodes[j] == null || EligibilityIndex.contains(podNodes[j], i))
+                    rowLength[i]++;
+            }
+        }
+
+        rowPods = new int[numNodes][];
+
+        for (int i = 0; i < numNodes; i++)
+            rowPods[i] = new int[rowLength[i]];
+
+        Arrays.fill(rowLength, 0);
+
+        for (int j = 0; j < numPods; j++) {
+            for (int i = 0; i < numNodes; i++) {
+                if (podNodes[j] == null || EligibilityIndex.contains(podNodes[j], i))
+                    rowPods[i][rowLength[i]++] = j;
+            }
+        }
+
+        return pairs;
+    }
+
+    public void build(ClusterState state) throws GRBException {
+        this.state = state;
+
+        int numNodes = state.numNodes;
+        int numPods = state.numPods;
+        long cells = countedState == state && rowPods.length == numNodes && columnLength.length == numPods ? countedPairs : eligiblePairs(state);
+        countedState = null;
+
+        boolean aggregated = aggregatedLinking;
+
+        if (!aggregated && estimateBytes(numNodes, numPods, cells, state.numResources, false, names) > memoryBudget) {
+            System.out.println("The disaggregated linking needs about " + estimateBytes(numNodes, numPods, cells, state.numResources, false, names) / (1 << 20) + " MB; linking per node instead");
+            aggregated = true;
+        }
+
+        if (estimateBytes(numNodes, numPods, cells, state.numResources, aggregated, names) > memoryBudget)
+            throw new IllegalStateException("The pod-level model of " + numNodes + " nodes and " + numPods + " pods needs about "
+                    + estimateBytes(numNodes, numPods, cells, state.numResources, aggregated, names) / (1 << 20) + " MB, over the budget of " + (long) memoryBudget / (1 << 20) + " MB");
+
+        env = new GRBEnv();
+        model = new GRBModel(env);
+        model.set(GRB.StringAttr.ModelName, "nodePodsAllocation");
+        model.set(GRB.DoubleParam.MIPGap, mipGap);
+        model.set(GRB.DoubleParam.TimeLimit, timeLimit);
+
+        // MINIMIZAR A FUNÇÃO OBJETIVO
+        model.set(GRB.IntAttr.ModelSense, GRB.MINIMIZE);
+
+        //restricao 5, para falar que x é binario; o custo de abertura é o coeficiente de x na função objetivo
+        char[] binaryNodes = new char[numNodes];
+        Arrays.fill(binaryNodes, GRB.BINARY);
+
+        x = model.addVars(null, null, Arrays.copyOf(state.nodeOpeningCost, numNodes), binaryNodes, names ? names("x_", numNodes) : null);
+
+        // Se um pod j é atendido por um node i
+        //restricao 6, para falar que y é binario; o custo de alocação é o coeficiente de y na função objetivo
+        y = new GRBVar[numNodes][];
+        rowVars = new GRBVar[numNodes][];
+
+        char[] binaryPods = new char[numPods];
+        Arrays.fill(binaryPods, GRB.BINARY);
+        double[] allocation = new double[numPods];
+
+        for (int i = 0; i < numNodes; ++i)
+        {
+            int[] pods = rowPods[i];
+
+            for (int k = 0; k < pods.length; ++k)
+                allocation[k] = state.allocationCost(i, pods[k]);
+
+            rowVars[i] = model.addVars(null, null, allocation, binaryPods, names ? names("y_" + i + ",", pods) : null, 0, pods.length);
+
+            /* A node that may take every pod has its row as it is; otherwise the pods it may not take get no y. */
+            if (pods.length == numPods)
+            {
+                y[i] = rowVars[i];
+            }
+            else
+            {
+                y[i] = new GRBVar[numPods];
+
+                for (int k = 0; k < pods.length; ++k)
+                    y[i][pods[k]] = rowVars[i][k];
+            }
+        }
+
+        // Criação da restrição 1
+
+        GRBLinExpr somatorio = new GRBLinExpr();
+        double[] ones = new double[Math.max(numNodes, numPods)];
+        Arrays.fill(ones, 1.0);
+
+        somatorio.addTerms(ones, x, 0, numNodes);
+
+        model.addConstr(somatorio, GRB.GREATER_EQUAL, 1, names ? "MinimoNodes" : null);
+
+        // Criação da restrição 2
+
+        if (aggregated)
+        {
+            GRBLinExpr[] linking = new GRBLinExpr[numNodes];
+
+            /* A node holds at most the pods it may take. */
+            for (int i = 0; i < numNodes; ++i)
+            {
+                linking[i] = new GRBLinExpr();
+                linking[i].addTerms(ones, rowVars[i], 0, rowPods[i].length);
+                linking[i].addTerm(-rowPods[i].length, x[i]);
+            }
+
+            model.addConstrs(linking, senses(GRB.LESS_EQUAL, numNodes), new double[numNodes], names ? names("AlocacaoNoAberto_", numNodes) : null);
+        }
+        else
+        {
+            /* One call per node, so the expressions of a single node are alive at a time. */
+            for (int i = 0; i < numNodes; ++i)
+            {
+                int[] pods = rowPods[i];
+                GRBLinExpr[] linking = new GRBLinExpr[pods.length];
+
+                for (int k = 0; k < pods.length; ++k)
+                {
+                    linking[k] = new GRBLinExpr();
+                    linking[k].addTerm(1.0, rowVars[i][k]);
+                    linking[k].addTerm(-1.0, x[i]);
+                }
+
+                model.addConstrs(linking, senses(GRB.LESS_EQUAL, pods.length), new double[pods.length], names ? names("AlocacaoNoAberto_" + i + ",", pods) : null);
+            }
+        }
+
+        // Criação da restrição 3
+
+        /* The y of each pod, gathered from the rows; a pod no node may take gets an empty row and makes the model infeasible. */
+        GRBVar[][] columns = new GRBVar[numPods][];
+        int[] filled = new int[numPods];
+
+        for (int j = 0; j < numPods; ++j)
+            columns[j] = new GRBVar[columnLength[j]];
+
+        for (int i = 0; i < numNodes; ++i)
+        {
+            for (int k = 0; k < rowPods[i].length; ++k)
+            {
+                int j = rowPods[i][k];
+                columns[j][filled[j]++] = rowVars[i][k];
+            }
+        }
+
+        GRBLinExpr[] atendimento = new GRBLinExpr[numPods];
+
+        for (int j = 0; j < numPods; ++j)
+        {
+            atendimento[j] = new GRBLinExpr();
+            atendimento[j].addTerms(ones, columns[j], 0, columnLength[j]);
+        }
+
+        double[] rhsPods = new double[numPods];
+        Arrays.fill(rhsPods, 1.0);
+
+        model.addConstrs(atendimento, senses(GRB.EQUAL, numPods), rhsPods, names ? names("AtendimentoPod_", numPods) : null);
+
+        // Criação da restrição 4
+
+        GRBLinExpr[] capacidade = new GRBLinExpr[numNodes];
+        double[] sizes = new double[numPods];
+
+        for (int i = 0; i < numNodes; ++i)
+        {
+            int[] pods = rowPods[i];
+
+            for (int k = 0; k < pods.length; ++k)
+                sizes[k] = state.podSize[pods[k]];
+
+            capacidade[i] = new GRBLinExpr();
+            capacidade[i].addTerms(sizes, rowVars[i], 0, pods.length);
+            capacidade[i].addTerm(-state.nodeCapacity[i], x[i]);
+        }
+
+        model.addConstrs(capacidade, senses(GRB.LESS_EQUAL, numNodes), new double[numNodes], names ? names("CapacidadeNo_", numNodes) : null);
+
+        /* One more capacity row per node for every other resource, with only the pods that request it. */
+        GRBVar[] requestingVars = new GRBVar[numPods];
+
+        for (int r = 1; r < state.numResources; ++r)
+        {
+            for (int i = 0; i < numNodes; ++i)
+            {
+                int[] pods = rowPods[i];
+                int requesting = 0;
+
+                for (int k = 0; k < pods.length; ++k)
+                {
+                    if (state.podResource[r][pods[k]] != 0)
+                    {
+                        sizes[requesting] = state.podResource[r][pods[k]];
+                        requestingVars[requesting++] = rowVars[i][k];
+                    }
+                }
+
+                capacidade[i] = new GRBLinExpr();
+                capacidade[i].addTerms(sizes, requestingVars, 0, requesting);
+                capacidade[i].addTerm(-state.nodeResourceCapacity[r][i], x[i]);
+            }
+
+            model.addConstrs(capacidade, senses(GRB.LESS_EQUAL, numNodes), new double[numNodes], names ? names("CapacidadeNo_r" + r + "_", numNodes) : null);
+        }
+    }
+
+    static char[] senses(char sense, int count) {
+        char[] senses = new char[count];
+        Arrays.fill(senses, sense);
+        return senses;
+    }
+
+    static String[] names(String prefix, int count) {
+        String[] names = new String[count];
+
+        for (int k = 0; k < count; k++)
+            names[k] = prefix + k;
+
+        return names;
+    }
+
+    /* Names for the given pod positions. */
+    private static String[] names(String prefix, int[] pods) {
+        String[] names = new String[pods.length];
+
+        for (int k = 0; k < pods.length; k++)
+            names[k] = prefix + pods[k];
+
+        return names;
+    }
+
+    /*
+     * The PlacementResult status of the last optimize of any model: INFEASIBLE when Gurobi proved it, TIME_LIMIT when
+     * it stopped with or without an incumbent, GAP_REACHED when it proved the MIP gap. Only with an incumbent, i.e.
+     * SolCount > 0, may ObjVal and X be read.
+     */
+    static int placementStatus(GRBModel model) throws GRBException {
+        int status = model.get(GRB.IntAttr.Status);
+
+        if (status == GRB.Status.INFEASIBLE || status == GRB.Status.INF_OR_UNBD)
+            return PlacementResult.INFEASIBLE;
+
+        return status == GRB.Status.OPTIMAL && model.get(GRB.IntAttr.SolCount) > 0 ? PlacementResult.GAP_REACHED : PlacementResult.TIME_LIMIT;
+    }
+
+    /* Writes the solution of the last optimize to the state and reports its status, objective and bound. */
+    public PlacementResult readResult() throws GRBException {
+        int status = placementStatus(model);
+        double runtime = model.get(GRB.DoubleAttr.Runtime);
+
+        state.clearAssignment();
+
+        if (status == PlacementResult.INFEASIBLE)
+            return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, runtime);
+
+        if (model.get(GRB.IntAttr.SolCount) == 0)
+            return new PlacementResult(PlacementResult.TIME_LIMIT, Double.POSITIVE_INFINITY, model.get(GRB.DoubleAttr.ObjBound), runtime);
+
+        for (int i = 0; i < state.numNodes; ++i) {
+            double[] values = model.get(GRB.DoubleAttr.X, rowVars[i]);
+
+            for (int k = 0; k < rowPods[i].length; ++k) {
+                if (values[k] > 0.5)
+                    state.assign(rowPods[i][k], i);
+            }
+        }
+
+        return new PlacementResult(status, model.get(GRB.DoubleAttr.ObjVal), model.get(GRB.DoubleAttr.ObjBound), runtime);
+    }
+
+    public GRBModel getModel() {
+        return model;
+    }
+
+    public GRBVar[] getNodeVars() {
+        return x;
+    }
+
+    /* y[i][j]: pod j is served by node i; null when the placement constraints of pod j rule node i out. */
+    public GRBVar[][] getAssignmentVars() {
+        return y;
+    }
+
+    /* Frees the model and environment of the last build, if any; the solver may build again afterwards. */
+    public void dispose() throws GRBException {
+        if (model != null)
+            model.dispose();
+        if (env != null)
+            env.dispose();
+
+        model = null;
+        env = null;
+    }
+}
@@ -3,23 +3,46 @@ import gurobi.*;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 class Pod {
-    private int resourceUsage;
+    /* Usage of each resource (CPU, memory, ephemeral storage, ...); resource 0 is the resource usage of a single-resource pod. */
+    private int[] resourceUsage;
     private int index;
     private int errors;
+    /* Labels the node must have and must not have and the taints of a node the pod tolerates, see ClusterState. */
+    private long affinity;
+    private long antiAffinity;
+    private long tolerations;
+    /* Order in the SchedulingQueue, higher first; zero unless priorities are drawn. */
+    private int priority;
 
     public Pod(int resourceUsage, int index, int errors) {
+        this(new int[]{resourceUsage}, index, errors);
+    }
+
+    public Pod(int[] resourceUsage, int index, int errors) {
         this.resourceUsage = resourceUsage;
         this.index = index;
         this.errors = errors;
     }
 
     public int getResourceUsage() {
-        return resourceUsage;
+        return resourceUsage[0];
+    }
+
+    /* Usage of resource r, zero for the resources the pod does not request. */
+    public int getResourceUsage(int r) {
+        return r < resourceUsage.length ? resourceUsage[r] : 0;
     }
 
     public int getErrors() {
@@ -29,19 +52,54 @@ class Pod {
     public int getIndex() {
         return index;
     }
+
+    public void setConstraints(long affinity, long antiAffinity, long tolerations) {
+        this.affinity = affinity;
+        this.antiAffinity = antiAffinity;
+        this.tolerations = tolerations;
+    }
+
+    public long getAffinity() {
+        return affinity;
+    }
+
+    public long getAntiAffinity() {
+        return antiAffinity;
+    }
+
+    public long getTolerations() {
+        return tolerations;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
 }
 
 class Node implements Comparable<Node> {
-    private int capacity;
+    /* Capacity and use of each resource, as in Pod. */
+    private int[] capacity;
+    private int[] usedCapacity;
     private List<Pod> pods;
     private int index;
     private double openingCost;
     private double allocationCost;
     private int errorPenalization;
     private boolean nodeAffinity;
+    private long labels;
+    private long taints;
 
     public Node(int capacity, int index, double openingCost, double allocationCost, int errorPenalization, boolean nodeAffinity) {
+        this(new int[]{capacity}, index, openingCost, allocationCost, errorPenalization, nodeAffinity);
+    }
+
+    public Node(int[] capacity, int index, double openingCost, double allocationCost, int errorPenalization, boolean nodeAffinity) {
         this.capacity = capacity;
+        this.usedCapacity = new int[capacity.length];
         this.pods = new ArrayList<>();
         this.index = index;
         this.openingCost = openingCost;
@@ -51,7 +109,15 @@ class Node implements Comparable<Node> {
     }
 
     public int getCapacity() {
-        return capacity;
+        return capacity[0];
+    }
+
+    public int getCapacity(int r) {
+        return capacity[r];
+    }
+
+    public int getNumResources() {
+        return capacity.length;
     }
 
     public double getOpeningCost() {
@@ -70,13 +136,56 @@ class Node implements Comparable<Node> {
         return nodeAffinity;
     }
 
+    public void setLabels(long labels, long taints) {
+        this.labels = labels;
+        this.taints = taints;
+    }
+
+    public long getLabels() {
+        return labels;
+    }
+
+    public long getTaints() {
+        return taints;
+    }
+
+    public int getUsedCapacity() {
+        return usedCapacity[0];
+    }
+
+    public int getUsedCapacity(int r) {
+        return usedCapacity[r];
+    }
+
+    public int getResidualCapacity() {
+        return capacity[0] - usedCapacity[0];
+    }
+
+    /* The used capacity is maintained by allocatePod, deallocatePod and clear, so the check does not walk the pods. */
     public boolean canAllocatePod(Pod pod) {
-        int totalPodsSize = pods.stream().mapToInt(Pod::getResourceUsage).sum();
-        return totalPodsSize + pod.getResourceUsage() <= capacity;
+        for (int r = 0; r < capacity.length; r++) {
+            if (usedCapacity[r] + pod.getResourceUsage(r) > capacity[r])
+                return false;
+        }
+
+        return true;
     }
 
     public void allocatePod(Pod pod) {
         pods.add(pod);
+
+        for (int r = 0; r < capacity.length; r++)
+            usedCapacity[r] += pod.getResourceUsage(r);
+    }
+
+    public boolean deallocatePod(Pod pod) {
+        if (!pods.remove(pod))
+            return false;
+
+        for (int r = 0; r < capacity.length; r++)
+            usedCapacity[r] -= pod.getResourceUsage(r);
+
+        return true;
     }
 
     public List<Pod> getPods() {
@@ -89,6 +198,7 @@ class Node implements Comparable<Node> {
 
     public void clear() {
         pods.clear();
+        Arrays.fill(usedCapacity, 0);
     }
 
     public int compareTo(Node nodeTemp) {
@@ -107,7 +217,31 @@ class Instance {
 
     /* Create the data structures and generate random data. */
     private List<Node> nodes = new ArrayList<>(numNodes);
-    private List<Pod> pods = new ArrayList<>(numPods);
+
+    /*
+     * Live pods are kept densely in podPool; removing a pod moves the last one into its place, so churn is O(1) per pod.
+     * Ids come from nextPodId and are never reused, and podPositions maps each id to its position in the pool, or -1 once removed.
+     */
+    private Pod[] podPool = new Pod[16];
+    private int podCount;
+    private int nextPodId;
+    private int[] podPositions = new int[16];
+
+    /* Pods added and removed by the last call to modifyNumberPods or replay. */
+    private PodChangeLog changeLog = new PodChangeLog();
+
+    /* Id of each live pod of a replayed trace by its id in the trace, which may be any number. */
+    private LongIntMap traceIds = new LongIntMap();
+
+    /* Resources of every pod and node; the ones after the first are drawn like it, see createNodes and createPod. */
+    private int numResources = 1;
+
+    /* Labels and taints the nodes may have and the pods may ask for, at most 64 each; none by default. */
+    private int numLabels;
+    private int numTaints;
+
+    /* Priorities the pods are drawn from, 0 .. numPriorities - 1; all pods have priority 0 by default. */
+    private int numPriorities;
 
     long seed = 100;
     Random random = new Random(seed);
@@ -117,6 +251,13 @@ class Instance {
         this.numNodes = numNodes;
     }
 
+    /* An instance whose random data comes from the given seed instead of the fixed one. */
+    public Instance(int numPods, int numNodes, long seed) {
+        this(numPods, numNodes);
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
     public int getCapacity() {
         int capacityMin = numPods / numNodes + 1; // Specify the minimum node capacity
         int capacityMax = numPods * 2; // Specify the maximum node capacity
@@ -164,42 +305,287 @@ class Instance {
         return random.nextBoolean();
     }
 
+    /* Sets the resources of the pods and nodes created from now on. */
+    public void setNumResources(int numResources) {
+        this.numResources = numResources;
+    }
+
+    /* Sets the labels and taints of the pods and nodes created from now on. */
+    public void setPlacementConstraints(int numLabels, int numTaints) {
+        if (numLabels < 0 || numLabels > Long.SIZE || numTaints < 0 || numTaints > Long.SIZE)
+            throw new IllegalArgumentException("Labels and taints are between 0 and " + Long.SIZE + ", not " + numLabels + " and " + numTaints);
+
+        this.numLabels = numLabels;
+        this.numTaints = numTaints;
+    }
+
+    /* Sets the number of priorities of the pods created from now on. */
+    public void setPriorities(int numPriorities) {
+        this.numPriorities = numPriorities;
+    }
+
+    /* Every label with probability 1/2 and every taint with probability 1/4. */
+    private void drawLabels(Node node) {
+        long labels = numLabels > 0 ? random.nextLong() & mask(numLabels) : 0;
+        long taints = numTaints > 0 ? random.nextLong() & random.nextLong() & mask(numTaints) : 0;
+
+        node.setLabels(labels, taints);
+    }
+
+    /* An affinity to one label for a pod in four, an anti-affinity to another for one in four, every taint tolerated with probability 1/2. */
+    private void drawConstraints(Pod pod) {
+        long affinity = drawAffinity();
+        long antiAffinity = drawAntiAffinity(affinity);
+
+        pod.setConstraints(affinity, antiAffinity, drawTolerations());
+    }
+
+    private long drawAffinity() {
+        return numLabels > 0 && random.nextInt(4) == 0 ? 1L << random.nextInt(numLabels) : 0;
+    }
+
+    private long drawAntiAffinity(long affinity) {
+        return numLabels > 0 && random.nextInt(4) == 0 ? (1L << random.nextInt(numLabels)) & ~affinity : 0;
+    }
+
+    private long drawTolerations() {
+        return numTaints > 0 ? random.nextLong() & mask(numTaints) : 0;
+    }
+
+    private static long mask(int bits) {
+        return bits == Long.SIZE ? -1L : (1L << bits) - 1;
+    }
+
     public void createNodes() {
         /* Create nodes using random data. */
         for (int i = 0; i < numNodes; i++) {
-            Node node = new Node(getCapacity(), i, getOpeningCost(), getAllocationCost(), getErrorPenalization(), getNodeAffinity());
-            nodes.add(node);
-
+            nodes.add(createNode(i));
         }
     }
 
+    /* A node drawn like those of createNodes, with the given index, that is not added to the instance. */
+    public Node createNode(int index) {
+        int[] capacity = new int[numResources];
+        capacity[0] = getCapacity();
+
+        Node node = new Node(capacity, index, getOpeningCost(), getAllocationCost(), getErrorPenalization(), getNodeAffinity());
+
+        /* The other resources are drawn last, so a single-resource instance keeps the random data it always had. */
+        for (int r = 1; r < numResources; r++)
+            capacity[r] = getCapacity();
+
+        drawLabels(node);
+        return node;
+    }
+
     public void createPods() {
         /* Create pods using random data. */
         for (int j = 0; j < numPods; j++) {
-            Pod pod = new Pod(getResourceUsage(), j, getErrors());
-            pods.add(pod);
+            addPod(createPod());
         }
     }
 
+    private Pod createPod() {
+        int[] usage = new int[numResources];
+        usage[0] = getResourceUsage();
+
+        Pod pod = new Pod(usage, nextPodId++, getErrors());
+
+        for (int r = 1; r < numResources; r++)
+            usage[r] = getResourceUsage();
+
+        drawConstraints(pod);
+
+        if (numPriorities > 1)
+            pod.setPriority(random.nextInt(numPriorities));
+
+        return pod;
+    }
+
+    /*
+     * Draws a pod like createPod straight into position j of the state, for callers that keep no Pod objects, and
+     * returns its priority. The pod is not added to the instance.
+     */
+    public int createPod(ClusterState state, int j) {
+        state.setPod(j, getResourceUsage(), getErrors());
+
+        for (int r = 1; r < numResources; r++)
+            state.setPodResource(j, r, getResourceUsage());
+
+        long affinity = drawAffinity();
+        long antiAffinity = drawAntiAffinity(affinity);
+        state.setPodConstraints(j, affinity, antiAffinity, drawTolerations());
+
+        return numPriorities > 1 ? random.nextInt(numPriorities) : 0;
+    }
+
     public List<Node> getNodes() {
         return nodes;
     }
 
+    /* A view of the live pods in pool order; it is invalidated by the next modifyNumberPods. */
     public List<Pod> getPods() {
-        return pods;
+        return Arrays.asList(podPool).subList(0, podCount);
+    }
+
+    /* Returns the live pod with the given id, or null when it was removed. */
+    public Pod getPod(int id) {
+        int position = podPositions[id];
+        return position < 0 ? null : podPool[position];
+    }
+
+    public PodChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    private void addPod(Pod pod) {
+        if (podCount == podPool.length)
+            podPool = Arrays.copyOf(podPool, podPool.length * 2);
+
+        int id = pod.getIndex();
+        if (id >= podPositions.length)
+            podPositions = Arrays.copyOf(podPositions, Math.max(id + 1, podPositions.length * 2));
+
+        podPositions[id] = podCount;
+        podPool[podCount++] = pod;
+    }
+
+    private Pod removePod(int position) {
+        Pod pod = podPool[position];
+        Pod last = podPool[--podCount];
+
+        podPool[position] = last;
+        podPositions[last.getIndex()] = position;
+        podPool[podCount] = null;
+        podPositions[pod.getIndex()] = -1;
+
+        return pod;
+    }
+
+    /* Copies the nodes and pods into the arrays of the state, with every pod unassigned. */
+    public void loadInto(ClusterState state) {
+        if (state.numResources != numResources)
+            state.setNumResources(numResources);
+
+        state.resizeNodes(nodes.size());
+
+        for (int i = 0; i < nodes.size(); i++)
+            loadNode(state, i, nodes.get(i));
+
+        state.resizePods(podCount);
+
+        for (int j = 0; j < podCount; j++) {
+            Pod pod = podPool[j];
+            state.setPod(j, pod.getResourceUsage(), pod.getErrors());
+
+            for (int r = 1; r < numResources; r++)
+                state.setPodResource(j, r, pod.getResourceUsage(r));
+
+            state.setPodConstraints(j, pod.getAffinity(), pod.getAntiAffinity(), pod.getTolerations());
+        }
+
+        state.clearAssignment();
+    }
+
+    /* Copies a node into position i of the state, which has the resources of the instance. */
+    public void loadNode(ClusterState state, int i, Node node) {
+        state.setNode(i, node.getCapacity(), node.getOpeningCost(), node.getAllocationCost(), node.getErrorPenalization(), node.getNodeAffinity());
+
+        for (int r = 1; r < numResources; r++)
+            state.setNodeResource(i, r, node.getCapacity(r));
+
+        state.setNodeLabels(i, node.getLabels(), node.getTaints());
+    }
+
+    /*
+     * Replaces the nodes and pods with those of the state, e.g. one read from a ClusterSnapshot. The random data
+     * of later slots comes from the seed again, not from where the dumped run had got to.
+     */
+    public void loadFrom(ClusterState state) {
+        nodes.clear();
+        numResources = state.numResources;
+
+        for (int i = 0; i < state.numNodes; i++) {
+            int[] capacity = new int[numResources];
+
+            for (int r = 0; r < numResources; r++)
+                capacity[r] = state.nodeResourceCapacity[r][i];
+
+            Node node = new Node(capacity, i, state.nodeOpeningCost[i], state.nodeAllocationCost[i], state.nodePenalization[i], state.nodeAffinity[i]);
+            node.setLabels(state.nodeLabels[i], state.nodeTaints[i]);
+            nodes.add(node);
+        }
+
+        while (podCount > 0)
+            removePod(podCount - 1);
+
+        for (int j = 0; j < state.numPods; j++) {
+            int[] usage = new int[numResources];
+
+            for (int r = 0; r < numResources; r++)
+                usage[r] = state.podResource[r][j];
+
+            Pod pod = new Pod(usage, nextPodId++, state.podErrors[j]);
+            pod.setConstraints(state.podAffinity[j], state.podAntiAffinity[j], state.podTolerations[j]);
+            addPod(pod);
+        }
+
+        numNodes = state.numNodes;
+        numPods = state.numPods;
+        changeLog.clear();
+    }
+
+    /*
+     * Applies the events of the trace before slotEnd, the way modifyNumberPods applies random ones: arrivals become
+     * new pods, departures remove the live pod with that trace id, and both go to the change log. Departures of pods
+     * that never arrived are ignored, as are repeated arrivals of a live pod.
+     */
+    public void replay(WorkloadTrace trace, long slotEnd) throws IOException {
+        int firstSlotId = nextPodId;
+
+        changeLog.clear();
+
+        while (trace.hasEvent() && trace.getTimestamp() < slotEnd) {
+            if (trace.isArrival()) {
+                if (!traceIds.containsKey(trace.getPodId())) {
+                    Pod pod = new Pod(trace.getResourceUsage(), nextPodId++, trace.getErrors());
+                    addPod(pod);
+                    traceIds.put(trace.getPodId(), pod.getIndex());
+                    changeLog.recordAdded(pod.getIndex());
+                    numPods++;
+                }
+            } else {
+                int id = traceIds.remove(trace.getPodId());
+
+                if (id != LongIntMap.MISSING) {
+                    removePod(podPositions[id]);
+                    numPods--;
+
+                    /* A pod that arrived in this slot is only dropped from the additions, see IncrementalRescheduler.apply. */
+                    if (id < firstSlotId)
+                        changeLog.recordRemoved(id);
+                }
+            }
+
+            trace.advance();
+        }
     }
 
     public void modifyNumberPods() {
         int minValue = (int) (numPods * 0.05);
-        int maxValue = (int) (numPods * 0.30);
+        /* Keeps the bound of nextInt above its origin once the slots have shrunk a small instance to a few pods. */
+        int maxValue = Math.max(minValue + 1, (int) (numPods * 0.30));
 
         int modification = random.nextInt(minValue, maxValue);
         boolean randomBoolean = random.nextBoolean();
 
+        changeLog.clear();
+
         if(randomBoolean) {
             for(int i = 0; i < modification; i++) {
-                Pod pod = new Pod(getResourceUsage(), numPods + i, getErrors());
-                pods.add(pod);
+                Pod pod = createPod();
+                addPod(pod);
+                changeLog.recordAdded(pod.getIndex());
             }
 
             numPods += modification;
@@ -207,7 +593,7 @@ class Instance {
         else {
             for(int i = 0; i < modification; i++) {
                 int randomIndex = random.nextInt(0, numPods);
-                pods.remove(randomIndex);
+                changeLog.recordRemoved(removePod(randomIndex).getIndex());
                 numPods--;
             }
         }
@@ -216,10 +602,19 @@ class Instance {
 
 class KubeScheduler {
     List<Node> nodes;
+
+    /* Finds the nodes a pod fits in, in every resource, for the ClusterState methods. */
+    NodeFitFilter fitFilter = new ScalarNodeFitFilter();
+
     public KubeScheduler(List<Node> nodes) {
         this.nodes = nodes;
     }
 
+    public KubeScheduler setFitFilter(NodeFitFilter fitFilter) {
+        this.fitFilter = fitFilter;
+        return this;
+    }
+
     public void addNode(Node node) {
         nodes.add(node);
     }
@@ -234,6 +629,36 @@ class KubeScheduler {
         return null;
     }
 
+    public void releasePod(Pod pod, Node node) {
+        node.deallocatePod(pod);
+    }
+
+    /* Prepares the scheduler for a state whose assignment was changed outside it, e.g. after ClusterState.clearAssignment. */
+    public void reset(ClusterState state) {
+    }
+
+    /* First-fit on the arrays of the state. Returns the position of the node the pod was assigned to, or -1. */
+    public int schedulePod(ClusterState state, int pod) {
+        int i = fitFilter.firstFit(state, pod, 0);
+
+        if (i >= 0)
+            state.assign(pod, i);
+
+        return i;
+    }
+
+    public void releasePod(ClusterState state, int pod) {
+        state.unassign(pod);
+    }
+
+    /* Node was appended to the state with ClusterState.addNode. */
+    public void addNode(ClusterState state, int node) {
+    }
+
+    /* Node was removed with ClusterState.removeNode, which moved the node at position moved into its place, if any. */
+    public void removeNode(ClusterState state, int node, int moved) {
+    }
+
     // public Node schedulePod(Pod pod) {
     //     Node randomNode = getRandomNode();
     //     while (randomNode != null && !randomNode.canAllocatePod(pod)) {
@@ -247,131 +672,1776 @@ class KubeScheduler {
     // }
 }
 
+/*
+ * First-fit over a segment tree of residual capacities: picks the same node as KubeScheduler in O(log N). The tree
+ * holds resource 0; with more resources, a node it finds that lacks another one is skipped and the search goes on
+ * after it.
+ */
+class IndexedKubeScheduler extends KubeScheduler {
+    private ResidualCapacityTree residualTree;
+    private Map<Node, Integer> positions;
 
-public class CustomMain {
-    public static void main(String[] args) throws GRBException, IOException {
+    public IndexedKubeScheduler(List<Node> nodes) {
+        super(nodes);
+        this.residualTree = new ResidualCapacityTree(nodes.size());
+        this.positions = new IdentityHashMap<>();
 
-        int[] tamanhosPods = {50, 100, 200, 500, 1000, 5000, 10000};
+        for (Node node : nodes) {
+            positions.put(node, residualTree.size());
+            residualTree.add(node.getResidualCapacity());
+        }
+    }
 
-        int[] tamanhosNodes = {10, 20, 50, 100, 200};
+    @Override
+    public void addNode(Node node) {
+        super.addNode(node);
+        positions.put(node, residualTree.size());
+        residualTree.add(node.getResidualCapacity());
+    }
 
-        int numberExecutions = 10;
+    @Override
+    public Node schedulePod(Pod pod) {
+        int position = residualTree.firstFit(pod.getResourceUsage());
 
-        FileWriter writerKubescheduler = new FileWriter(new File("kubescheduler.csv"));
-        //FileWriter writerFormulation = new FileWriter(new File("formulation.csv"));
-        //FileWriter writerPodsPending = new FileWriter(new File("podspending.csv"));
+        while (position >= 0 && !nodes.get(position).canAllocatePod(pod))
+            position = residualTree.firstFitFrom(position + 1, pod.getResourceUsage());
 
-        //writerKubescheduler.write("number of pods; number of nodes; solution cost; time (ms) \n");
-        writerKubescheduler.write("time slot; number of pods; usedNodes; solution cost; time (ms) \n");
+        if (position < 0)
+            return null;
 
-        int indexPod =  ThreadLocalRandom.current().nextInt(0, 6);
-        int indexNode =  ThreadLocalRandom.current().nextInt(0, 4);
+        Node node = nodes.get(position);
+        node.allocatePod(pod);
+        residualTree.update(position, node.getResidualCapacity());
 
-        int numPods = 5000;
-        int numNodes = 100;
+        return node;
+    }
 
-        System.out.println("Number of pods: " + numPods + " and Number of Nodes: " + numNodes);
+    @Override
+    public void releasePod(Pod pod, Node node) {
+        super.releasePod(pod, node);
+        refresh(node);
+    }
 
-        Instance instance = new Instance(numPods, numNodes);
+    /* Must be called after a node's pods are changed outside the scheduler, e.g. by Node.clear. */
+    public void refresh(Node node) {
+        residualTree.update(positions.get(node), node.getResidualCapacity());
+    }
 
-        instance.createPods();
+    /* Rebuilds the tree from the residual capacities of the state; the object nodes are no longer tracked afterwards. */
+    @Override
+    public void reset(ClusterState state) {
+        residualTree.clear();
 
-        instance.createNodes();
+        for (int i = 0; i < state.numNodes; i++)
+            residualTree.add(state.residual(i));
+    }
 
-        /* Perform computational experiments with respect to the time horizon. */
+    @Override
+    public int schedulePod(ClusterState state, int pod) {
+        int position = residualTree.firstFit(state.podSize[pod]);
 
-        long startTime = System.currentTimeMillis();
+        while (position >= 0 && state.numResources > 1 && !state.fits(pod, position))
+            position = residualTree.firstFitFrom(position + 1, state.podSize[pod]);
 
-        int totalTime = 20;
+        if (position < 0)
+            return -1;
 
-        int timeSlot = 0;
+        state.assign(pod, position);
+        residualTree.update(position, state.residual(position));
 
-        int usedNodes = 0;
+        return position;
+    }
 
-        while (timeSlot < totalTime) {
+    @Override
+    public void releasePod(ClusterState state, int pod) {
+        int position = state.podNode[pod];
+        super.releasePod(state, pod);
+
+        if (position >= 0)
+            residualTree.update(position, state.residual(position));
+    }
+
+    @Override
+    public void addNode(ClusterState state, int node) {
+        residualTree.add(state.residual(node));
+    }
+
+    @Override
+    public void removeNode(ClusterState state, int node, int moved) {
+        if (moved >= 0)
+            residualTree.update(node, state.residual(node));
 
-            List<Node> nodes = instance.getNodes();
-            List<Pod> pods = instance.getPods();
+        residualTree.removeLast();
+    }
+}
 
-            HashMap<Pod, Node> allocation = new HashMap<>();
-            TreeSet<Node> openedNodes = new TreeSet<>();
+/*
+ * Scheduling framework phases, modelled on kube-scheduler: Filter drops nodes that cannot run the pod, Score ranks the rest and Bind commits the choice.
+ * Plugins see the pod and the node as positions in a ClusterState.
+ */
+interface FilterPlugin {
+    boolean filter(ClusterState state, int pod, int node);
+}
 
-            numNodes = nodes.size();
-            numPods = pods.size();
+interface ScorePlugin {
+    /* Higher scores are preferred. Must not modify the state, since scoring may run in parallel. */
+    double score(ClusterState state, int pod, int node);
+}
 
-            KubeScheduler kubeScheduler = new KubeScheduler(nodes);
+interface BindPlugin {
+    void bind(ClusterState state, int pod, int node);
+}
 
-            for(Node node : nodes)
-                node.clear();
+/* Only nodes labelled with affinity are eligible. */
+class NodeAffinityFilter implements FilterPlugin {
+    public boolean filter(ClusterState state, int pod, int node) {
+        return state.nodeAffinity[node];
+    }
+}
 
-            for (Pod pod : pods) {
-                Node allocatedNode = kubeScheduler.schedulePod(pod);
+/* Prefers the node left with the least residual capacity. */
+class BestFitScore implements ScorePlugin {
+    public double score(ClusterState state, int pod, int node) {
+        return -(state.residual(node) - state.podSize[pod]);
+    }
+}
+
+/* Prefers the node left with the most residual capacity. */
+class WorstFitScore implements ScorePlugin {
+    public double score(ClusterState state, int pod, int node) {
+        return state.residual(node) - state.podSize[pod];
+    }
+}
 
-                if (allocatedNode != null) {
+/* Prefers the node whose solution cost grows the least: opening cost if still empty, allocation cost and error penalization. */
+class CheapestMarginalCostScore implements ScorePlugin {
+    public double score(ClusterState state, int pod, int node) {
+        double cost = state.allocationCost(node, pod);
 
-                    allocation.put(pod, allocatedNode);
-                    openedNodes.add(allocatedNode);
+        if (state.nodePodCount[node] == 0)
+            cost += state.nodeOpeningCost[node];
 
-                    //double cost = allocatedNode.getAllocationCost();
+        return -cost;
+    }
+}
 
-                    // System.out.println("Allocated pod " + pod.getIndex() + " with resource usage " + pod.getResourceUsage() +
-                    //         " to node " + allocatedNode.getIndex() + " with capacity " + allocatedNode.getCapacity() +
-                    //         " (Cost: " + cost + ")");
-                } //else {
-                //System.out.println("Unable to allocate pod " + pod.getIndex() + " with resource usage " + pod.getResourceUsage() + " to any node.");
-                //}
-            }
+class DefaultBinder implements BindPlugin {
+    public void bind(ClusterState state, int pod, int node) {
+        state.assign(pod, node);
+    }
+}
 
+/*
+ * Runs the plugins on a ClusterState; the object-based schedulePod(Pod) copies the nodes and the pod into a state of
+ * its own first, so it pays O(nodes) for the copy on top of the plugins and picks the node the plugins would pick on
+ * the arrays. Filtering starts with the
+ * fit filter, which drops the nodes without room for the pod in some resource, as NodeResourcesFit does in
+ * kube-scheduler, and with the eligibility index, which drops the nodes the affinity, anti-affinity and taints of the
+ * pod rule out, as NodeAffinity and TaintToleration do; the filter plugins only see the nodes both keep. The index is
+ * built from the nodes of the state by reset.
+ */
+class FrameworkScheduler extends KubeScheduler {
+    /* Below this many nodes the fork/join overhead outweighs scoring in parallel. */
+    static final int PARALLEL_SCORING_THRESHOLD = 2048;
+
+    private List<FilterPlugin> filterPlugins = new ArrayList<>();
+    private List<ScorePlugin> scorePlugins = new ArrayList<>();
+    private List<Double> scoreWeights = new ArrayList<>();
+    private BindPlugin bindPlugin = new DefaultBinder();
+    private double[] scores = new double[0];
+    private boolean[] fits = new boolean[0];
+    private EligibilityIndex eligibility = new EligibilityIndex();
+    private long[] eligible = new long[0];
+
+    /* The nodes and the pod of the last schedulePod(Pod), with an index of their own so the one of the state is kept. */
+    private ClusterState view = new ClusterState(0, 1);
+    private EligibilityIndex viewEligibility = new EligibilityIndex();
+
+    public FrameworkScheduler(List<Node> nodes) {
+        super(nodes);
+    }
 
-            // Schedule pods and measure the time taken
-            long endTime = System.currentTimeMillis();
+    public FrameworkScheduler addFilterPlugin(FilterPlugin plugin) {
+        filterPlugins.add(plugin);
+        return this;
+    }
 
-            long elapsedTime = (endTime - startTime) / numberExecutions;
+    public FrameworkScheduler addScorePlugin(ScorePlugin plugin, double weight) {
+        scorePlugins.add(plugin);
+        scoreWeights.add(weight);
+        return this;
+    }
 
-            int uniqueNodes = openedNodes.stream().distinct().toList().size();
+    public FrameworkScheduler setBindPlugin(BindPlugin plugin) {
+        bindPlugin = plugin;
+        return this;
+    }
 
-            // Print the pods allocated to each node
-            // for (Node node : kubeScheduler.nodes) {
-            //     System.out.println("Node " + node.getIndex() + " with capacity " + node.getCapacity() + " has pods with sizes: " + node.getPods());
-            // }
+    @Override
+    public Node schedulePod(Pod pod) {
+        int numResources = nodes.isEmpty() ? 1 : nodes.get(0).getNumResources();
 
-            // Calculate quality score
-            double totalCost = 0.0;
+        if (view.numResources != numResources)
+            view.setNumResources(numResources);
 
-            /* Sums the opening cost for all opened nodes. */
-            Iterator<Node> iterator = openedNodes.iterator();
-            while (iterator.hasNext()) {
-                Node tempNode = iterator.next();
-                totalCost += tempNode.getOpeningCost();
-            }
+        view.resizeNodes(nodes.size());
+        view.resizePods(1);
+        view.clearAssignment();
 
-            /* Sums the allocation cost for each allocation performed involving a pod and a node. */
-            for (Pod tempPod : pods) {
-                Node tempNode = allocation.get(tempPod);
+        /* The used capacity and pod count of each node are copied as they are, without pods of the state behind them. */
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            view.setNode(i, node.getCapacity(), node.getOpeningCost(), node.getAllocationCost(), node.getErrorPenalization(), node.getNodeAffinity());
+            view.setNodeLabels(i, node.getLabels(), node.getTaints());
 
-                if (tempNode != null) {
-                    totalCost += tempNode.getAllocationCost();
-                    totalCost += tempNode.getErrorPenalization() * tempPod.getErrors();
-                }
+            for (int r = 0; r < numResources; r++) {
+                view.nodeResourceCapacity[r][i] = node.getCapacity(r);
+                view.nodeResourceUsed[r][i] = node.getUsedCapacity(r);
             }
 
-            System.out.println("Total Cost: " + totalCost);
-            System.out.println("Total time taken: " + elapsedTime + " ms");
+            view.nodePodCount[i] = node.getPods().size();
+        }
 
-            writerKubescheduler.write(timeSlot + "; " + numPods + "; " + uniqueNodes + "; " + totalCost + "; " + elapsedTime + "\n");
+        view.setPod(0, pod.getResourceUsage(), pod.getErrors());
+        view.setPodConstraints(0, pod.getAffinity(), pod.getAntiAffinity(), pod.getTolerations());
 
-            instance.modifyNumberPods();
+        for (int r = 1; r < numResources; r++)
+            view.setPodResource(0, r, pod.getResourceUsage(r));
 
-            timeSlot++;
+        viewEligibility.build(view);
+        int best = schedulePod(view, 0, viewEligibility);
 
-            writerKubescheduler.flush();
-            //writerFormulation.flush();
-            //writerPodsPending.flush();
+        if (best < 0)
+            return null;
+
+        Node node = nodes.get(best);
+        node.allocatePod(pod);
+
+        return node;
+    }
+
+    @Override
+    public void reset(ClusterState state) {
+        eligibility.build(state);
+    }
+
+    @Override
+    public void addNode(ClusterState state, int node) {
+        eligibility.build(state);
+    }
+
+    @Override
+    public void removeNode(ClusterState state, int node, int moved) {
+        eligibility.build(state);
+    }
+
+    @Override
+    public int schedulePod(ClusterState state, int pod) {
+        return schedulePod(state, pod, eligibility);
+    }
+
+    private int schedulePod(ClusterState state, int pod, EligibilityIndex eligibility) {
+        int numNodes = state.numNodes;
+
+        if (scores.length < numNodes) {
+            scores = new double[numNodes];
+            fits = new boolean[numNodes];
         }
 
+        if (fitFilter.filter(state, pod, fits) == 0)
+            return -1;
+
+        if (eligibility.size() != numNodes)
+            eligibility.build(state);
 
-        writerKubescheduler.close();
-        //writerFormulation.close();
-        //writerPodsPending.close();
+        if (!eligibility.allEligible(state, pod)) {
+            if (eligible.length < EligibilityIndex.words(numNodes))
+                eligible = new long[EligibilityIndex.words(numNodes)];
+
+            if (eligibility.eligibleNodes(state, pod, eligible) == 0)
+                return -1;
+
+            for (int i = 0; i < numNodes; i++)
+                fits[i] &= EligibilityIndex.contains(eligible, i);
+        }
+
+        if (numNodes >= PARALLEL_SCORING_THRESHOLD)
+            IntStream.range(0, numNodes).parallel().forEach(i -> scores[i] = evaluate(state, pod, i));
+        else
+            for (int i = 0; i < numNodes; i++)
+                scores[i] = evaluate(state, pod, i);
+
+        /* Ties go to the lowest position, so the choice does not depend on the number of threads. */
+        int best = -1;
+        for (int i = 0; i < numNodes; i++) {
+            if (scores[i] != Double.NEGATIVE_INFINITY && (best < 0 || scores[i] > scores[best]))
+                best = i;
+        }
+
+        if (best >= 0)
+            bindPlugin.bind(state, pod, best);
+
+        return best;
+    }
+
+    /* Weighted score of a node, or negative infinity when it lacks room, is not eligible or a filter rejects it. */
+    private double evaluate(ClusterState state, int pod, int node) {
+        if (!fits[node])
+            return Double.NEGATIVE_INFINITY;
+
+        for (int k = 0; k < filterPlugins.size(); k++) {
+            if (!filterPlugins.get(k).filter(state, pod, node))
+                return Double.NEGATIVE_INFINITY;
+        }
+
+        double score = 0.0;
+        for (int k = 0; k < scorePlugins.size(); k++)
+            score += scoreWeights.get(k) * scorePlugins.get(k).score(state, pod, node);
+
+        return score;
     }
-}
\ No newline at end of file
+}
+
+/*
+ * Keeps the placement of a ClusterState across time slots and applies only the pods that changed, so a slot costs O(churn) scheduling calls.
+ * With a SchedulingQueue the pods are tried in its order instead of arrival order; pods that fit no node stay in it,
+ * and are retried after their backoff once a removal frees capacity.
+ */
+class IncrementalRescheduler {
+    private ClusterState state;
+    private KubeScheduler scheduler;
+    private SchedulingQueue queue;
+
+    /* Position in the state of each pod id, and the pod id at each position. */
+    private int[] positionById = new int[16];
+    private int[] idByPosition = new int[16];
+
+    public IncrementalRescheduler(ClusterState state, KubeScheduler scheduler) {
+        this.state = state;
+        this.scheduler = scheduler;
+    }
+
+    public IncrementalRescheduler setQueue(SchedulingQueue queue) {
+        this.queue = queue;
+        return this;
+    }
+
+    /* Loads every pod of the instance and places it from scratch. */
+    public void load(Instance instance) {
+        instance.loadInto(state);
+        scheduler.reset(state);
+
+        if (queue != null)
+            queue.clear();
+
+        List<Pod> pods = instance.getPods();
+        long now = System.nanoTime();
+
+        for (int j = 0; j < pods.size(); j++) {
+            track(pods.get(j).getIndex(), j);
+
+            if (queue != null)
+                queue.add(j, pods.get(j).getPriority(), now);
+            else
+                scheduler.schedulePod(state, j);
+        }
+
+        drain();
+    }
+
+    /* Frees the capacity of the pods removed by the last modifyNumberPods and schedules the added ones; the other pods keep their nodes. */
+    public void apply(Instance instance) {
+        PodChangeLog changeLog = instance.getChangeLog();
+
+        boolean freed = false;
+
+        for (int k = 0; k < changeLog.getRemovedCount(); k++) {
+            int j = positionById[changeLog.getRemoved(k)];
+            freed |= state.podNode[j] >= 0;
+            scheduler.releasePod(state, j);
+
+            if (queue != null)
+                queue.remove(j);
+
+            int moved = state.removePod(j);
+
+            if (moved >= 0) {
+                track(idByPosition[moved], j);
+
+                if (queue != null)
+                    queue.moved(moved, j);
+            }
+        }
+
+        if (queue != null && freed)
+            queue.moveAllToActiveOrBackoff(System.nanoTime());
+
+        for (int k = 0; k < changeLog.getAddedCount(); k++) {
+            Pod pod = instance.getPod(changeLog.getAdded(k));
+
+            /* A trace can remove a pod in the slot it arrived in; it never reached the state. */
+            if (pod == null)
+                continue;
+
+            int j = state.addPod(pod.getResourceUsage(), pod.getErrors());
+
+            for (int r = 1; r < state.numResources; r++)
+                state.setPodResource(j, r, pod.getResourceUsage(r));
+
+            state.setPodConstraints(j, pod.getAffinity(), pod.getAntiAffinity(), pod.getTolerations());
+
+            track(pod.getIndex(), j);
+
+            if (queue != null)
+                queue.add(j, pod.getPriority(), System.nanoTime());
+            else
+                scheduler.schedulePod(state, j);
+        }
+
+        drain();
+    }
+
+    /* Tries the pods of the queue until none is ready; the ones that fit no node go back to it as unschedulable. */
+    private void drain() {
+        if (queue == null)
+            return;
+
+        for (int j = queue.pop(System.nanoTime()); j >= 0; j = queue.pop(System.nanoTime())) {
+            int node = scheduler.schedulePod(state, j);
+
+            if (node >= 0)
+                queue.bound(j, System.nanoTime());
+            else
+                queue.unschedulable(j, System.nanoTime());
+        }
+    }
+
+    private void track(int id, int position) {
+        if (id >= positionById.length)
+            positionById = Arrays.copyOf(positionById, Math.max(id + 1, positionById.length * 2));
+        if (position >= idByPosition.length)
+            idByPosition = Arrays.copyOf(idByPosition, Math.max(position + 1, idByPosition.length * 2));
+
+        positionById[id] = position;
+        idByPosition[position] = id;
+    }
+}
+
+/* Builds a scheduler from the strategy name given to the experiment driver. */
+class SchedulingProfiles {
+    static final String[] NAMES = {"first-fit", "best-fit", "worst-fit", "cheapest"};
+
+    public static KubeScheduler create(String name, List<Node> nodes, boolean nodeAffinity) {
+        return create(name, nodes, nodeAffinity, new ScalarNodeFitFilter(), false);
+    }
+
+    /*
+     * With the given fit filter. First-fit without affinity scans the nodes with a filter other than the scalar one,
+     * since the segment tree of IndexedKubeScheduler beats a scan of any width only on a single resource. With
+     * placementConstraints the pods have affinities, anti-affinities or tolerations, which only FrameworkScheduler checks.
+     */
+    public static KubeScheduler create(String name, List<Node> nodes, boolean nodeAffinity, NodeFitFilter fitFilter, boolean placementConstraints) {
+        if (name.equals("first-fit") && !nodeAffinity && !placementConstraints) {
+            if (fitFilter instanceof ScalarNodeFitFilter)
+                return new IndexedKubeScheduler(nodes);
+
+            return new KubeScheduler(nodes).setFitFilter(fitFilter);
+        }
+
+        FrameworkScheduler scheduler = new FrameworkScheduler(nodes);
+        scheduler.setFitFilter(fitFilter);
+
+        if (nodeAffinity)
+            scheduler.addFilterPlugin(new NodeAffinityFilter());
+
+        switch (name) {
+            case "first-fit":
+                /* Without score plugins every feasible node ties and the lowest position wins. */
+                break;
+            case "best-fit":
+                scheduler.addScorePlugin(new BestFitScore(), 1.0);
+                break;
+            case "worst-fit":
+                scheduler.addScorePlugin(new WorstFitScore(), 1.0);
+                break;
+            case "cheapest":
+                scheduler.addScorePlugin(new CheapestMarginalCostScore(), 1.0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scheduling strategy: " + name + ", expected one of " + Arrays.toString(NAMES));
+        }
+
+        return scheduler;
+    }
+}
+
+
+/* Compares the streamed capacity check with the maintained used-capacity counter on first-fit scheduling. */
+class CapacityCheckBenchmark {
+    public static void main(String[] args) throws IOException {
+
+        int[] tamanhosPods = {50, 100, 200, 500, 1000, 5000, 10000};
+
+        int[] tamanhosNodes = {10, 20, 50, 100, 200};
+
+        int numberExecutions = 10;
+
+        FileWriter writerBenchmark = new FileWriter(new File("capacitycheck.csv"));
+
+        writerBenchmark.write("number of pods; number of nodes; streamed (ms); counter (ms); speedup \n");
+
+        for (int numPods : tamanhosPods) {
+            for (int numNodes : tamanhosNodes) {
+
+                Instance instance = new Instance(numPods, numNodes);
+
+                instance.createPods();
+
+                instance.createNodes();
+
+                /* The first round of each variant only warms up the JIT. */
+                runFirstFit(instance, true);
+                runFirstFit(instance, false);
+
+                long streamedTime = 0;
+                long counterTime = 0;
+
+                for (int i = 0; i < numberExecutions; i++) {
+                    streamedTime += runFirstFit(instance, true);
+                    counterTime += runFirstFit(instance, false);
+                }
+
+                double streamedMillis = streamedTime / 1e6 / numberExecutions;
+                double counterMillis = counterTime / 1e6 / numberExecutions;
+
+                System.out.println("Pods: " + numPods + ", Nodes: " + numNodes + ", streamed: " + streamedMillis + " ms, counter: " + counterMillis + " ms");
+
+                writerBenchmark.write(numPods + "; " + numNodes + "; " + streamedMillis + "; " + counterMillis + "; " + (streamedMillis / counterMillis) + "\n");
+                writerBenchmark.flush();
+            }
+        }
+
+        writerBenchmark.close();
+    }
+
+    /* Places every pod by first-fit and returns the elapsed nanoseconds. */
+    private static long runFirstFit(Instance instance, boolean streamed) {
+        List<Node> nodes = instance.getNodes();
+
+        for (Node node : nodes)
+            node.clear();
+
+        long startTime = System.nanoTime();
+
+        for (Pod pod : instance.getPods()) {
+            for (Node node : nodes) {
+                if (streamed ? canAllocatePodStreamed(node, pod) : node.canAllocatePod(pod)) {
+                    node.allocatePod(pod);
+                    break;
+                }
+            }
+        }
+
+        return System.nanoTime() - startTime;
+    }
+
+    /* The check as it was before Node kept its used capacity. */
+    private static boolean canAllocatePodStreamed(Node node, Pod pod) {
+        int totalPodsSize = node.getPods().stream().mapToInt(Pod::getResourceUsage).sum();
+        return totalPodsSize + pod.getResourceUsage() <= node.getCapacity();
+    }
+}
+
+/*
+ * Microbenchmarks of the scheduler hot paths over the tamanhosPods x tamanhosNodes grid, measured as JMH does: warmup
+ * iterations that are discarded, then timed iterations of a fixed length. Each benchmark reports throughput, average
+ * time per operation with the standard deviation over the iterations, and the bytes allocated per operation and per
+ * second, read from the allocation counter of the thread (what the gc profiler of JMH reports as gc.alloc.rate).
+ * Results of every operation go to a sink, so the JIT cannot drop the work.
+ *
+ * JMH itself cannot drive this code: it needs benchmarks in a named package, and those cannot see the classes of the
+ * default package. Options: warmup=n, iterations=n, time=ms per iteration, strategy=name, filter=benchmark name part,
+ * gurobi=true to include the model build, which needs a license, resources=n, labels=n and taints=n for the pods and
+ * nodes, and pods=n and nodes=n to run a single size instead of the grid, e.g. filter=fitFilter nodes=10000 resources=3
+ * for the vector against the scalar fit filter (the vector one is built from the vector source root with --add-modules
+ * jdk.incubator.vector, see NodeFitFilter) or filter=eligibility nodes=10000 labels=8 taints=4 for the bitsets against the predicate.
+ */
+class SchedulerBenchmark {
+    private static long sink;
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    public static void main(String[] args) throws IOException {
+
+        int[] tamanhosPods = {50, 100, 200, 500, 1000, 5000, 10000};
+
+        int[] tamanhosNodes = {10, 20, 50, 100, 200};
+
+        int warmup = Integer.parseInt(KubeSchedulerTime.option(args, "warmup", "3"));
+        int iterations = Integer.parseInt(KubeSchedulerTime.option(args, "iterations", "5"));
+        long iterationTime = Long.parseLong(KubeSchedulerTime.option(args, "time", "200")) * 1_000_000;
+        String strategy = KubeSchedulerTime.option(args, "strategy", "first-fit");
+        String filter = KubeSchedulerTime.option(args, "filter", "");
+        boolean gurobi = Boolean.parseBoolean(KubeSchedulerTime.option(args, "gurobi", "false"));
+        int numResources = Integer.parseInt(KubeSchedulerTime.option(args, "resources", "1"));
+        int numLabels = Integer.parseInt(KubeSchedulerTime.option(args, "labels", "0"));
+        int numTaints = Integer.parseInt(KubeSchedulerTime.option(args, "taints", "0"));
+
+        if (!KubeSchedulerTime.option(args, "pods", "").isEmpty())
+            tamanhosPods = new int[]{Integer.parseInt(KubeSchedulerTime.option(args, "pods", ""))};
+
+        if (!KubeSchedulerTime.option(args, "nodes", "").isEmpty())
+            tamanhosNodes = new int[]{Integer.parseInt(KubeSchedulerTime.option(args, "nodes", ""))};
+
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported())
+            threadBean = bean;
+
+        FileWriter writerBenchmark = new FileWriter(new File("benchmarks.csv"));
+
+        writerBenchmark.write("benchmark; number of pods; number of nodes; throughput (ops/s); average (ns/op); error (ns/op); allocated (bytes/op); allocation rate (MB/s) \n");
+
+        for (int numPods : tamanhosPods) {
+            for (int numNodes : tamanhosNodes) {
+
+                Map<String, IntSupplier> benchmarks = benchmarks(numPods, numNodes, numResources, numLabels, numTaints, strategy, gurobi);
+
+                for (Map.Entry<String, IntSupplier> benchmark : benchmarks.entrySet()) {
+                    if (!benchmark.getKey().contains(filter))
+                        continue;
+
+                    IntSupplier operation = benchmark.getValue();
+
+                    for (int i = 0; i < warmup; i++)
+                        iteration(operation, iterationTime);
+
+                    double[] nanosPerOp = new double[iterations];
+                    long totalOps = 0;
+                    long totalNanos = 0;
+                    long totalBytes = 0;
+
+                    for (int i = 0; i < iterations; i++) {
+                        long[] measured = iteration(operation, iterationTime);
+                        nanosPerOp[i] = (double) measured[1] / measured[0];
+                        totalOps += measured[0];
+                        totalNanos += measured[1];
+                        totalBytes += measured[2];
+                    }
+
+                    double average = (double) totalNanos / totalOps;
+                    double variance = 0.0;
+
+                    for (double value : nanosPerOp)
+                        variance += (value - average) * (value - average);
+
+                    double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0.0;
+                    double throughput = totalOps / (totalNanos / 1e9);
+                    String bytesPerOp = threadBean == null ? "-" : String.valueOf((double) totalBytes / totalOps);
+                    String allocationRate = threadBean == null ? "-" : String.valueOf(totalBytes / 1e6 / (totalNanos / 1e9));
+
+                    System.out.println(benchmark.getKey() + " (" + numPods + " pods, " + numNodes + " nodes): " + throughput + " ops/s, " + average + " +/- " + error + " ns/op, " + bytesPerOp + " B/op");
+
+                    writerBenchmark.write(benchmark.getKey() + "; " + numPods + "; " + numNodes + "; " + throughput + "; " + average + "; " + error + "; " + bytesPerOp + "; " + allocationRate + "\n");
+                    writerBenchmark.flush();
+                }
+            }
+        }
+
+        writerBenchmark.close();
+
+        System.out.println("sink " + sink);
+    }
+
+    /*
+     * The benchmarks of one grid cell, by name. Each call of an operation does some work and returns how many operations
+     * it counts as, e.g. one per pod for a whole scheduling pass, so numbers compare across instance sizes.
+     */
+    private static Map<String, IntSupplier> benchmarks(int numPods, int numNodes, int numResources, int numLabels, int numTaints,
+                                                       String strategy, boolean gurobi) {
+        Map<String, IntSupplier> benchmarks = new LinkedHashMap<>();
+
+        Instance instance = new Instance(numPods, numNodes);
+        instance.setNumResources(numResources);
+        instance.setPlacementConstraints(numLabels, numTaints);
+        instance.createPods();
+        instance.createNodes();
+
+        ClusterState state = new ClusterState(numNodes, numPods);
+        instance.loadInto(state);
+
+        KubeScheduler kubeScheduler = SchedulingProfiles.create(strategy, instance.getNodes(), false, new ScalarNodeFitFilter(),
+                numLabels > 0 || numTaints > 0);
+
+        /* One operation is one pod placed; the pass starts from an empty cluster every time. */
+        benchmarks.put("schedulePod", () -> {
+            state.clearAssignment();
+            kubeScheduler.reset(state);
+
+            for (int j = 0; j < state.numPods; j++)
+                sink += kubeScheduler.schedulePod(state, j);
+
+            return state.numPods;
+        });
+
+        /* One operation is one check, against nodes filled by first-fit as the driver leaves them. */
+        List<Node> nodes = instance.getNodes();
+        List<Pod> pods = new ArrayList<>(instance.getPods());
+
+        for (Node node : nodes)
+            node.clear();
+
+        for (Pod pod : pods) {
+            for (Node node : nodes) {
+                if (node.canAllocatePod(pod)) {
+                    node.allocatePod(pod);
+                    break;
+                }
+            }
+        }
+
+        benchmarks.put("canAllocatePod", () -> {
+            int allowed = 0;
+
+            for (Pod pod : pods) {
+                for (Node node : nodes) {
+                    if (node.canAllocatePod(pod))
+                        allowed++;
+                }
+            }
+
+            sink += allowed;
+            return pods.size() * nodes.size();
+        });
+
+        /* One operation is a new instance with its pods and nodes. */
+        long[] seed = {0};
+
+        benchmarks.put("createPods", () -> {
+            Instance created = new Instance(numPods, numNodes, seed[0]++);
+            created.createPods();
+            created.createNodes();
+            sink += created.getPods().size();
+            return 1;
+        });
+
+        /* One operation is one slot of churn; the instance is replaced before it drifts far from its size. */
+        Instance[] churned = {new Instance(numPods, numNodes)};
+        churned[0].createPods();
+
+        benchmarks.put("modifyNumberPods", () -> {
+            int size = churned[0].getPods().size();
+
+            if (size < numPods / 2 || size > numPods * 2) {
+                churned[0] = new Instance(numPods, numNodes, seed[0]++);
+                churned[0].createPods();
+            }
+
+            churned[0].modifyNumberPods();
+            sink += churned[0].getChangeLog().getAddedCount();
+            return 1;
+        });
+
+        /* One operation is one pod costed by a full pass over the arrays, the pass the running totalCost replaced. */
+        ClusterState scheduled = new ClusterState(numNodes, numPods);
+        instance.loadInto(scheduled);
+        kubeScheduler.reset(scheduled);
+
+        for (int j = 0; j < scheduled.numPods; j++)
+            kubeScheduler.schedulePod(scheduled, j);
+
+        /*
+         * One operation is one node checked: every pod in turn is filtered against all nodes, filled as first-fit leaves
+         * them, with the scalar filter and, when the module is there, the vector one.
+         */
+        boolean[] fits = new boolean[numNodes];
+        List<NodeFitFilter> fitFilters = new ArrayList<>(List.of(new ScalarNodeFitFilter()));
+        NodeFitFilter vectorFilter = NodeFitFilter.create(true);
+
+        if (!(vectorFilter instanceof ScalarNodeFitFilter))
+            fitFilters.add(vectorFilter);
+
+        for (NodeFitFilter fitFilter : fitFilters) {
+            int[] next = {0};
+
+            benchmarks.put("fitFilter " + fitFilter.getName(), () -> {
+                sink += fitFilter.filter(scheduled, next[0], fits);
+                next[0] = (next[0] + 1) % scheduled.numPods;
+                return scheduled.numNodes;
+            });
+        }
+
+        /*
+         * One operation is one node checked against the placement constraints of a pod, every pod in turn: with the
+         * bitsets of EligibilityIndex, and with ClusterState.eligible per node. Give labels=n and taints=n to have some.
+         */
+        EligibilityIndex eligibility = new EligibilityIndex();
+        eligibility.build(scheduled);
+        long[] eligible = new long[EligibilityIndex.words(numNodes)];
+        int[] nextPod = {0, 0};
+
+        benchmarks.put("eligibility bitset", () -> {
+            sink += eligibility.eligibleNodes(scheduled, nextPod[0], eligible);
+            nextPod[0] = (nextPod[0] + 1) % scheduled.numPods;
+            return scheduled.numNodes;
+        });
+
+        benchmarks.put("eligibility predicate", () -> {
+            int count = 0;
+
+            for (int i = 0; i < scheduled.numNodes; i++) {
+                if (scheduled.eligible(nextPod[1], i))
+                    count++;
+            }
+
+            sink += count;
+            nextPod[1] = (nextPod[1] + 1) % scheduled.numPods;
+            return scheduled.numNodes;
+        });
+
+        benchmarks.put("costEvaluation", () -> {
+            double totalCost = 0.0;
+
+            for (int i = 0; i < scheduled.numNodes; i++) {
+                if (scheduled.nodePodCount[i] > 0)
+                    totalCost += scheduled.nodeOpeningCost[i];
+            }
+
+            for (int j = 0; j < scheduled.numPods; j++) {
+                int i = scheduled.podNode[j];
+
+                if (i >= 0)
+                    totalCost += scheduled.allocationCost(i, j);
+            }
+
+            sink += (long) totalCost;
+            return scheduled.numPods;
+        });
+
+        /* One operation is one copy of the instance into the arrays the model is built from. */
+        ClusterState loaded = new ClusterState(numNodes, numPods);
+
+        benchmarks.put("loadInto", () -> {
+            instance.loadInto(loaded);
+            sink += loaded.numPods;
+            return 1;
+        });
+
+        if (gurobi) {
+            /* One operation is one pod-level model built and disposed. */
+            benchmarks.put("modelBuild", () -> {
+                GurobiPlacementSolver solver = new GurobiPlacementSolver(0.03, GRB.INFINITY);
+
+                try {
+                    solver.build(state);
+                    solver.dispose();
+                } catch (GRBException e) {
+                    throw new IllegalStateException("Error code: " + e.getErrorCode() + ". " + e.getMessage(), e);
+                }
+
+                return 1;
+            });
+        }
+
+        return benchmarks;
+    }
+
+    /* Repeats the operation for the iteration time; returns the operations counted, the nanoseconds and the bytes allocated. */
+    private static long[] iteration(IntSupplier operation, long iterationTime) {
+        long operations = 0;
+        long startBytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        long elapsed;
+
+        do {
+            operations += operation.getAsInt();
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < iterationTime);
+
+        return new long[]{operations, elapsed, allocatedBytes() - startBytes};
+    }
+
+    private static long allocatedBytes() {
+        return threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
+
+/*
+ * Runs the whole tamanhosPods x tamanhosNodes grid, numberExecutions repetitions per cell and the time horizon of each,
+ * on a fixed pool of threads (all cores by default). Every repetition gets its own Instance, seeded from the base seed
+ * and its coordinates, so a row can be reproduced alone. The rows of every cell are written to grid.csv in grid order,
+ * whatever order the cells finish in.
+ *
+ * Options are those of KubeSchedulerTime plus threads=n, seed=n and bound=true|false for the Lagrangian bound.
+ * Slot times are measured while the other cells run, so they are comparable within a run but not with a serial one.
+ */
+class ExperimentGrid {
+    public static void main(String[] args) throws Exception {
+
+        int[] tamanhosPods = {50, 100, 200, 500, 1000, 5000, 10000};
+
+        int[] tamanhosNodes = {10, 20, 50, 100, 200};
+
+        int numberExecutions = 10;
+
+        int totalTime = 20;
+
+        String strategy = KubeSchedulerTime.option(args, "strategy", "first-fit");
+        boolean nodeAffinity = Boolean.parseBoolean(KubeSchedulerTime.option(args, "affinity", "false"));
+        boolean incremental = KubeSchedulerTime.option(args, "mode", "full").equals("incremental");
+        boolean bound = Boolean.parseBoolean(KubeSchedulerTime.option(args, "bound", "false"));
+        int threads = Integer.parseInt(KubeSchedulerTime.option(args, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long baseSeed = Long.parseLong(KubeSchedulerTime.option(args, "seed", "100"));
+
+        int numCells = tamanhosPods.length * tamanhosNodes.length * numberExecutions;
+        List<Future<String>> rows = new ArrayList<>(Collections.nCopies(numCells, null));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long startTime = System.nanoTime();
+
+        /* The largest cells are submitted first, so a long one does not start last and hold up the whole run. */
+        for (int p = tamanhosPods.length - 1; p >= 0; p--) {
+            for (int n = tamanhosNodes.length - 1; n >= 0; n--) {
+                for (int r = 0; r < numberExecutions; r++) {
+                    int numPods = tamanhosPods[p];
+                    int numNodes = tamanhosNodes[n];
+                    int repetition = r;
+                    long seed = cellSeed(baseSeed, numPods, numNodes, repetition);
+
+                    rows.set((p * tamanhosNodes.length + n) * numberExecutions + r, pool.submit(() ->
+                            runCell(numPods, numNodes, repetition, seed, totalTime, strategy, nodeAffinity, incremental, bound)));
+                }
+            }
+        }
+
+        FileWriter writerGrid = new FileWriter(new File("grid.csv"));
+
+        writerGrid.write("number of pods; number of nodes; repetition; seed; time slot; pods; used nodes; solution cost; slot time (ms); throughput (pods/s); lower bound; gap \n");
+
+        try {
+            for (Future<String> row : rows) {
+                writerGrid.write(row.get());
+                writerGrid.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+            writerGrid.close();
+        }
+
+        System.out.println(numCells + " runs on " + threads + " threads in " + (System.nanoTime() - startTime) / 1e9 + " s");
+    }
+
+    /* Mixes the coordinates of a cell into the base seed with the SplitMix64 finalizer, one coordinate at a time. */
+    static long cellSeed(long baseSeed, int numPods, int numNodes, int repetition) {
+        long seed = mix(baseSeed + numPods);
+        seed = mix(seed + numNodes);
+        return mix(seed + repetition);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /* Runs the time horizon of one repetition of a cell and returns its rows. */
+    private static String runCell(int numPods, int numNodes, int repetition, long seed, int totalTime, String strategy,
+                                  boolean nodeAffinity, boolean incremental, boolean bound) {
+        Instance instance = new Instance(numPods, numNodes, seed);
+
+        instance.createPods();
+
+        instance.createNodes();
+
+        ClusterState state = new ClusterState(numNodes, numPods);
+
+        KubeScheduler kubeScheduler = SchedulingProfiles.create(strategy, instance.getNodes(), nodeAffinity);
+
+        IncrementalRescheduler rescheduler = new IncrementalRescheduler(state, kubeScheduler);
+
+        LagrangianBound lagrangianBound = bound ? new LagrangianBound(200, nodeAffinity) : null;
+
+        StringBuilder rows = new StringBuilder();
+
+        for (int timeSlot = 0; timeSlot < totalTime; timeSlot++) {
+
+            long schedulingStart = System.nanoTime();
+
+            int scheduledPods;
+
+            if (incremental && timeSlot > 0) {
+                rescheduler.apply(instance);
+                scheduledPods = instance.getChangeLog().getAddedCount();
+            } else if (incremental) {
+                rescheduler.load(instance);
+                scheduledPods = state.numPods;
+            } else {
+                instance.loadInto(state);
+                kubeScheduler.reset(state);
+
+                for (int j = 0; j < state.numPods; j++)
+                    kubeScheduler.schedulePod(state, j);
+
+                scheduledPods = state.numPods;
+            }
+
+            long slotTime = System.nanoTime() - schedulingStart;
+
+            double totalCost = state.totalCost();
+            String lowerBound = "-";
+            String gap = "-";
+
+            if (lagrangianBound != null) {
+                lowerBound = String.valueOf(lagrangianBound.compute(state, state.assignedPods() == state.numPods ? totalCost : Double.POSITIVE_INFINITY));
+                gap = String.valueOf(lagrangianBound.gap(totalCost));
+            }
+
+            rows.append(numPods + "; " + numNodes + "; " + repetition + "; " + seed + "; " + timeSlot + "; " + state.numPods + "; " + state.usedNodes() + "; " + totalCost + "; " + slotTime / 1e6 + "; " + scheduledPods / (slotTime / 1e9) + "; " + lowerBound + "; " + gap + "\n");
+
+            instance.modifyNumberPods();
+        }
+
+        return rows.toString();
+    }
+}
+
+
+/*
+ * Discrete-event simulation of a cluster over simulated hours or days: pods arrive as a Poisson process, or from a
+ * trace, and leave at the end of their lifetime, nodes join and leave, and every event is applied to a ClusterState
+ * through a KubeScheduler and a SchedulingQueue, as IncrementalRescheduler applies a slot. Events wait in an EventQueue
+ * and pods and nodes are positions in the state, so an event allocates nothing. Every interval of simulated time adds
+ * a row of counters to simulation.csv. Times are simulated nanoseconds.
+ *
+ * A pod leaves at its arrival plus its lifetime whether it ran all that time or not, as when its controller deletes
+ * it, so a pod has exactly one departure and its id is reused once it left. A node that leaves evicts its pods back to
+ * the queue. Pods that fit no node are retried when a departure or a new node frees capacity, after their backoff.
+ */
+class ClusterSimulator {
+    static final int ARRIVAL = 0;
+    static final int DEPARTURE = 1;
+    static final int NODE_ADDITION = 2;
+    static final int NODE_REMOVAL = 3;
+    static final int TRACE = 4;
+    static final int RETRY = 5;
+    static final int METRICS = 6;
+
+    private ClusterState state;
+    private KubeScheduler scheduler;
+    private Instance instance;
+    private SchedulingQueue queue;
+    private EventQueue events = new EventQueue();
+    private Random random;
+
+    /* Mean time between pod arrivals, node additions and node removals, and mean pod lifetime; 0 turns a process off. */
+    private double meanInterarrival;
+    private double meanLifetime;
+    private double meanNodeAddition;
+    private double meanNodeRemoval;
+
+    /* A replayed trace instead of the random arrivals, with the simulated nanoseconds of a timestamp unit. */
+    private WorkloadTrace trace;
+    private double traceUnit;
+    private long traceStart;
+    private LongIntMap traceIds = new LongIntMap();
+
+    /* Position in the state of each pod id, the pod id and priority at each position, and the ids free for reuse. */
+    private int[] positionById = new int[16];
+    private int[] idByPosition = new int[16];
+    private int[] priorityByPosition = new int[16];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    private int nextNodeIndex;
+    private long retryAt = Long.MAX_VALUE;
+
+    /* Counters of the current interval. */
+    private long processed;
+    private long arrivals;
+    private long departures;
+    private long nodeAdditions;
+    private long nodeRemovals;
+    private long binds;
+    private long failures;
+    private long evictions;
+    private long expired;
+
+    /* Binds and their total wait in the queue up to the last interval. */
+    private long lastWaits;
+    private long lastWaitSum;
+
+    /* Runs from the nodes of the instance and no pods; new pods and nodes are drawn from the instance as well. */
+    public ClusterSimulator(Instance instance, KubeScheduler scheduler, SchedulingQueue queue, long seed) {
+        this.instance = instance;
+        this.scheduler = scheduler;
+        this.queue = queue;
+        this.random = new Random(seed);
+
+        state = new ClusterState(instance.getNodes().size(), 16);
+        instance.loadInto(state);
+        scheduler.reset(state);
+        nextNodeIndex = state.numNodes;
+    }
+
+    /* Pods arriving per simulated second, each running an exponential lifetime of the given mean in seconds. */
+    public ClusterSimulator setArrivals(double perSecond, double lifetimeSeconds) {
+        meanInterarrival = perSecond > 0 ? 1e9 / perSecond : 0;
+        meanLifetime = lifetimeSeconds * 1e9;
+        return this;
+    }
+
+    /* Nodes joining and leaving per simulated hour; a leaving node is drawn uniformly and the last one never leaves. */
+    public ClusterSimulator setNodeChurn(double additionsPerHour, double removalsPerHour) {
+        meanNodeAddition = additionsPerHour > 0 ? 3600e9 / additionsPerHour : 0;
+        meanNodeRemoval = removalsPerHour > 0 ? 3600e9 / removalsPerHour : 0;
+        return this;
+    }
+
+    /* Replays the pods of the trace instead of drawing them, secondsPerUnit simulated seconds per timestamp unit. */
+    public ClusterSimulator setTrace(WorkloadTrace trace, double secondsPerUnit) {
+        this.trace = trace;
+        this.traceUnit = secondsPerUnit * 1e9;
+        return this;
+    }
+
+    public ClusterState getState() {
+        return state;
+    }
+
+    /* Simulates the given nanoseconds, writing the counters of every interval to the sink; returns the events processed. */
+    public long run(long duration, long interval, ResultSink sink) throws IOException {
+        if (trace != null) {
+            if (trace.hasEvent()) {
+                traceStart = trace.getTimestamp();
+                events.schedule(0, TRACE, 0);
+            }
+        } else if (meanInterarrival > 0) {
+            events.schedule(exponential(meanInterarrival), ARRIVAL, 0);
+        }
+
+        if (meanNodeAddition > 0)
+            events.schedule(exponential(meanNodeAddition), NODE_ADDITION, 0);
+
+        if (meanNodeRemoval > 0)
+            events.schedule(exponential(meanNodeRemoval), NODE_REMOVAL, 0);
+
+        events.schedule(Math.min(interval, duration), METRICS, 0);
+
+        long total = 0;
+        long intervalStart = System.nanoTime();
+
+        while (!events.isEmpty() && events.peekTime() <= duration) {
+            events.poll();
+            long now = events.getTime();
+            processed++;
+
+            switch (events.getKind()) {
+                case ARRIVAL:
+                    arrive(now, state.addPod(0, 0));
+                    events.schedule(now + exponential(meanInterarrival), ARRIVAL, 0);
+                    break;
+                case DEPARTURE:
+                    depart(events.getSubject(), now);
+                    break;
+                case NODE_ADDITION:
+                    addNode(now);
+                    events.schedule(now + exponential(meanNodeAddition), NODE_ADDITION, 0);
+                    break;
+                case NODE_REMOVAL:
+                    removeNode(now);
+                    events.schedule(now + exponential(meanNodeRemoval), NODE_REMOVAL, 0);
+                    break;
+                case TRACE:
+                    replay(now);
+                    break;
+                case RETRY:
+                    if (now == retryAt)
+                        retryAt = Long.MAX_VALUE;
+
+                    drain(now);
+                    break;
+                case METRICS:
+                    long wall = System.nanoTime();
+                    write(sink, now, wall - intervalStart);
+                    total += processed;
+                    processed = 0;
+                    intervalStart = wall;
+
+                    if (now < duration)
+                        events.schedule(Math.min(now + interval, duration), METRICS, 0);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event kind " + events.getKind());
+            }
+        }
+
+        return total + processed;
+    }
+
+    /* Pod j was just added to the state: draws it unless it comes from the trace, and queues it. */
+    private void arrive(long now, int j) {
+        int priority = trace == null ? instance.createPod(state, j) : 0;
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+
+        if (id >= positionById.length)
+            positionById = Arrays.copyOf(positionById, positionById.length * 2);
+
+        track(id, j);
+        priorityByPosition[j] = priority;
+        arrivals++;
+
+        if (trace == null && meanLifetime > 0)
+            events.schedule(now + exponential(meanLifetime), DEPARTURE, id);
+        else if (trace != null)
+            traceIds.put(trace.getPodId(), id);
+
+        queue.add(j, priority, now);
+        drain(now);
+    }
+
+    private void depart(int id, long now) {
+        int j = positionById[id];
+        boolean bound = state.podNode[j] >= 0;
+
+        queue.remove(j);
+        scheduler.releasePod(state, j);
+        int moved = state.removePod(j);
+
+        if (moved >= 0) {
+            track(idByPosition[moved], j);
+            priorityByPosition[j] = priorityByPosition[moved];
+            queue.moved(moved, j);
+        }
+
+        if (freeCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+
+        freeIds[freeCount++] = id;
+        departures++;
+
+        if (!bound)
+            expired++;
+        else if (queue.getUnschedulableCount() > 0)
+            retryUnschedulable(now);
+    }
+
+    private void addNode(long now) {
+        Node node = instance.createNode(nextNodeIndex++);
+        int i = state.addNode(node.getCapacity(), node.getOpeningCost(), node.getAllocationCost(), node.getErrorPenalization(), node.getNodeAffinity());
+        instance.loadNode(state, i, node);
+        scheduler.addNode(state, i);
+        nodeAdditions++;
+
+        if (queue.getUnschedulableCount() > 0)
+            retryUnschedulable(now);
+    }
+
+    /* Evicts the pods of a random node back to the queue and removes it. */
+    private void removeNode(long now) {
+        if (state.numNodes <= 1)
+            return;
+
+        int i = random.nextInt(state.numNodes);
+
+        for (int j = 0; j < state.numPods && state.nodePodCount[i] > 0; j++) {
+            if (state.podNode[j] == i) {
+                scheduler.releasePod(state, j);
+                queue.add(j, priorityByPosition[j], now);
+                evictions++;
+            }
+        }
+
+        int moved = state.removeNode(i);
+        scheduler.removeNode(state, i, moved);
+        nodeRemovals++;
+
+        drain(now);
+    }
+
+    /* Applies the current event of the trace and schedules the next one. */
+    private void replay(long now) throws IOException {
+        if (trace.isArrival()) {
+            if (!traceIds.containsKey(trace.getPodId()))
+                arrive(now, state.addPod(trace.getResourceUsage(), trace.getErrors()));
+        } else {
+            int id = traceIds.remove(trace.getPodId());
+
+            if (id != LongIntMap.MISSING)
+                depart(id, now);
+        }
+
+        trace.advance();
+
+        if (trace.hasEvent())
+            events.schedule(Math.max(now, (long) ((trace.getTimestamp() - traceStart) * traceUnit)), TRACE, 0);
+    }
+
+    /* Capacity was freed: the unschedulable pods go back to the queue and the ready ones are tried. */
+    private void retryUnschedulable(long now) {
+        queue.moveAllToActiveOrBackoff(now);
+        drain(now);
+    }
+
+    /* Tries every pod ready in the queue, then makes sure an event comes when the next backoff expires. */
+    private void drain(long now) {
+        for (int j = queue.pop(now); j >= 0; j = queue.pop(now)) {
+            if (scheduler.schedulePod(state, j) >= 0) {
+                queue.bound(j, now);
+                binds++;
+            } else {
+                queue.unschedulable(j, now);
+                failures++;
+            }
+        }
+
+        long expiry = queue.nextBackoffExpiry();
+
+        if (expiry < retryAt) {
+            retryAt = expiry;
+            events.schedule(expiry, RETRY, 0);
+        }
+    }
+
+    private void track(int id, int j) {
+        if (j >= idByPosition.length) {
+            idByPosition = Arrays.copyOf(idByPosition, Math.max(j + 1, idByPosition.length * 2));
+            priorityByPosition = Arrays.copyOf(priorityByPosition, idByPosition.length);
+        }
+
+        positionById[id] = j;
+        idByPosition[j] = id;
+    }
+
+    private long exponential(double mean) {
+        return (long) (-mean * Math.log(1.0 - random.nextDouble()));
+    }
+
+    private void write(ResultSink sink, long now, long wallNanos) throws IOException {
+        LatencyHistogram waits = queue.getLatencies().get(0);
+        long count = waits.getCount() - lastWaits;
+        double meanWait = count == 0 ? 0.0 : (waits.getSum() - lastWaitSum) / 1e6 / count;
+        lastWaits = waits.getCount();
+        lastWaitSum = waits.getSum();
+
+        sink.add(now / 1e9).add(processed).add(processed / (wallNanos / 1e9)).add(arrivals).add(departures).add(nodeAdditions).add(nodeRemovals)
+                .add(state.numNodes).add(state.numPods).add(state.numPods - state.assignedPods()).add(state.usedNodes()).add(state.totalCost())
+                .add(binds).add(failures).add(evictions).add(expired).add(meanWait).endRow();
+        sink.flush();
+
+        arrivals = 0;
+        departures = 0;
+        nodeAdditions = 0;
+        nodeRemovals = 0;
+        binds = 0;
+        failures = 0;
+        evictions = 0;
+        expired = 0;
+    }
+
+    /*
+     * Options as key=value: arrivalrate=<pods per s> with lifetime=<mean s> (or trace=<file> with timeunit=<s per
+     * timestamp unit>), nodeadditions and noderemovals=<per hour>, duration and interval=<s> of simulated time, and
+     * nodes, strategy, affinity, vector, resources, labels, taints, priorities, backoff and maxbackoff=<ms>, seed and
+     * columnar as for KubeSchedulerTime. The nodes are sized for arrivalrate x lifetime pods at once.
+     */
+    public static void main(String[] args) throws IOException {
+        double arrivalRate = Double.parseDouble(KubeSchedulerTime.option(args, "arrivalrate", "50"));
+        double lifetime = Double.parseDouble(KubeSchedulerTime.option(args, "lifetime", "100"));
+        double nodeAdditionRate = Double.parseDouble(KubeSchedulerTime.option(args, "nodeadditions", "1"));
+        double nodeRemovalRate = Double.parseDouble(KubeSchedulerTime.option(args, "noderemovals", "1"));
+        long duration = (long) (Double.parseDouble(KubeSchedulerTime.option(args, "duration", "86400")) * 1e9);
+        long interval = (long) (Double.parseDouble(KubeSchedulerTime.option(args, "interval", "3600")) * 1e9);
+        String tracePath = KubeSchedulerTime.option(args, "trace", "");
+        double timeUnit = Double.parseDouble(KubeSchedulerTime.option(args, "timeunit", "1"));
+        int numNodes = Integer.parseInt(KubeSchedulerTime.option(args, "nodes", "100"));
+        String strategy = KubeSchedulerTime.option(args, "strategy", "first-fit");
+        boolean nodeAffinity = Boolean.parseBoolean(KubeSchedulerTime.option(args, "affinity", "false"));
+        NodeFitFilter fitFilter = NodeFitFilter.create(Boolean.parseBoolean(KubeSchedulerTime.option(args, "vector", "false")));
+        int numResources = Integer.parseInt(KubeSchedulerTime.option(args, "resources", "1"));
+        int numLabels = Integer.parseInt(KubeSchedulerTime.option(args, "labels", "0"));
+        int numTaints = Integer.parseInt(KubeSchedulerTime.option(args, "taints", "0"));
+        int numPriorities = Integer.parseInt(KubeSchedulerTime.option(args, "priorities", "0"));
+        long seed = Long.parseLong(KubeSchedulerTime.option(args, "seed", "100"));
+        boolean columnar = Boolean.parseBoolean(KubeSchedulerTime.option(args, "columnar", "false"));
+
+        if (interval <= 0)
+            throw new IllegalArgumentException("The interval is a positive number of seconds");
+
+        Instance instance = new Instance((int) Math.max(1, arrivalRate * lifetime), numNodes, seed);
+        instance.setNumResources(numResources);
+        instance.setPlacementConstraints(numLabels, numTaints);
+        instance.setPriorities(numPriorities);
+        instance.createNodes();
+
+        KubeScheduler scheduler = SchedulingProfiles.create(strategy, instance.getNodes(), nodeAffinity, fitFilter, numLabels > 0 || numTaints > 0);
+
+        /* Backoffs as in kube-scheduler, 1 s doubling up to 10 s, in simulated time. */
+        SchedulingQueue queue = new SchedulingQueue((long) (Double.parseDouble(KubeSchedulerTime.option(args, "backoff", "1000")) * 1e6),
+                (long) (Double.parseDouble(KubeSchedulerTime.option(args, "maxbackoff", "10000")) * 1e6));
+
+        ClusterSimulator simulator = new ClusterSimulator(instance, scheduler, queue, seed)
+                .setArrivals(arrivalRate, lifetime)
+                .setNodeChurn(nodeAdditionRate, nodeRemovalRate);
+
+        WorkloadTrace trace = null;
+
+        if (!tracePath.isEmpty()) {
+            trace = new WorkloadTrace(Path.of(tracePath));
+            simulator.setTrace(trace, timeUnit);
+        }
+
+        ResultSink sink = new ResultSink(Path.of("simulation.csv"), columnar ? Path.of("simulation.col") : null,
+                "time (s)", "events", "events/s", "arrivals", "departures", "node additions", "node removals", "nodes", "pods",
+                "pending pods", "used nodes", "cost", "binds", "failed attempts", "evictions", "expired pending", "mean wait (ms)");
+
+        System.out.println("Simulating " + duration / 1e9 + " s on " + numNodes + " nodes using " + strategy
+                + (trace == null ? " with " + arrivalRate + " pods/s" : " replaying " + tracePath));
+
+        long start = System.nanoTime();
+        long processed = simulator.run(duration, interval, sink);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(processed + " events in " + elapsed / 1e6 + " ms: " + processed / (elapsed / 1e9) + " events/s");
+
+        sink.close();
+
+        if (trace != null)
+            trace.close();
+
+        /* The time from enqueue to bind, in simulated time. */
+        LatencyHistogram.write("simulation-latency.csv", queue.getLatencies().toArray(new LatencyHistogram[0]));
+    }
+}
+
+public class KubeSchedulerTime {
+    /* One pod in this many is timed on its own, so the per-pod histogram costs little next to schedulePod itself. */
+    static final int POD_SAMPLE_INTERVAL = 16;
+
+    public static void main(String[] args) throws GRBException, IOException {
+
+        int[] tamanhosPods = {50, 100, 200, 500, 1000, 5000, 10000};
+
+        int[] tamanhosNodes = {10, 20, 50, 100, 200};
+
+        int numberExecutions = 10;
+
+        /* Arguments are given as key=value, e.g. strategy=best-fit affinity=true. */
+        String strategy = option(args, "strategy", "first-fit");
+        boolean nodeAffinity = Boolean.parseBoolean(option(args, "affinity", "false"));
+        boolean incremental = option(args, "mode", "full").equals("incremental");
+        /* localsearch=<ms> improves the schedule of every slot with that time budget; 0 leaves it as scheduled. */
+        double localSearchBudget = Double.parseDouble(option(args, "localsearch", "0"));
+        /* bound=true bounds the optimal cost of every slot with LagrangianBound, in about boundtime=<ms> per slot. */
+        boolean bound = Boolean.parseBoolean(option(args, "bound", "false"));
+        double boundBudget = Double.parseDouble(option(args, "boundtime", "5"));
+        /* trace=<file> replays the pods of a trace, slotlength timestamp units per slot, instead of random ones. */
+        String tracePath = option(args, "trace", "");
+        long slotLength = Long.parseLong(option(args, "slotlength", "1"));
+        int totalTime = Integer.parseInt(option(args, "slots", "20"));
+        /* load=<file> starts from the instance of a ClusterSnapshot; dump=<dir> writes one snapshot per slot there. */
+        String snapshotPath = option(args, "load", "");
+        String dumpDirectory = option(args, "dump", "");
+
+        if (!snapshotPath.isEmpty() && !tracePath.isEmpty())
+            throw new IllegalArgumentException("load and trace both give the pods of the first slot; use one of them");
+
+        /*
+         * resources=<n> gives pods and nodes n resources (CPU, memory, ephemeral storage, ...) instead of one; the
+         * pods of a trace only request the first. vector=true finds the nodes a pod fits in with the Vector API, see
+         * NodeFitFilter. The lower bound relaxes every resource but the first, so it stays valid.
+         */
+        int numResources = Integer.parseInt(option(args, "resources", "1"));
+        NodeFitFilter fitFilter = NodeFitFilter.create(Boolean.parseBoolean(option(args, "vector", "false")));
+
+        if (numResources > 1 && localSearchBudget > 0)
+            throw new IllegalArgumentException("localsearch moves pods by their first resource only; use resources=1");
+
+        /*
+         * labels=<n> and taints=<n> (at most 64 each) give the nodes random labels and taints and the generated pods
+         * affinities, anti-affinities and tolerations, checked through EligibilityIndex. The lower bound relaxes them.
+         */
+        int numLabels = Integer.parseInt(option(args, "labels", "0"));
+        int numTaints = Integer.parseInt(option(args, "taints", "0"));
+        boolean placementConstraints = numLabels > 0 || numTaints > 0;
+
+        /*
+         * queue=true sends the pods through a SchedulingQueue, highest priority first (priorities=<n> draws them from
+         * 0 .. n - 1); pods that fit no node are retried once a removal frees capacity, after a backoff of backoff=<ms>
+         * doubling up to maxbackoff=<ms>. In full mode every slot starts with an empty queue. The time from enqueue to
+         * bind of the pods goes to kubescheduler-latency.csv.
+         */
+        int numPriorities = Integer.parseInt(option(args, "priorities", "0"));
+        SchedulingQueue queue = null;
+
+        if (Boolean.parseBoolean(option(args, "queue", "false")))
+            queue = new SchedulingQueue((long) (Double.parseDouble(option(args, "backoff", "1")) * 1e6),
+                    (long) (Double.parseDouble(option(args, "maxbackoff", "10")) * 1e6));
+
+        /* columnar=true also writes the rows of each CSV to a binary columnar file, e.g. kubescheduler.col. */
+        boolean columnar = Boolean.parseBoolean(option(args, "columnar", "false"));
+
+        //FileWriter writerFormulation = new FileWriter(new File("formulation.csv"));
+
+        /* Pods left pending at the end of every slot and, only when there is a queue, where they wait in it. */
+        String[] pendingColumns = {"number of pods", "number of nodes", "slot of time", "pending pods", "active", "backoff", "unschedulable"};
+        ResultSink sinkPodsPending = new ResultSink(Path.of("podspending.csv"), columnar ? Path.of("podspending.col") : null,
+                queue == null ? Arrays.copyOf(pendingColumns, 4) : pendingColumns);
+
+        //writerKubescheduler.write("number of pods; number of nodes; solution cost; time (ms) \n");
+        ResultSink sinkKubescheduler = new ResultSink(Path.of("kubescheduler.csv"), columnar ? Path.of("kubescheduler.col") : null,
+                "time slot", "number of pods", "usedNodes", "solution cost", "time (ms)", "strategy", "throughput (pods/s)", "mode", "slot time (ms)",
+                "lower bound", "gap", "repaired cost", "bound time (ms)", "local search cost", "local search gap", "whole slot time (ms)");
+
+        ResultSink sinkLocalSearch = null;
+
+        if (localSearchBudget > 0) {
+            sinkLocalSearch = new ResultSink(Path.of("localsearch.csv"), columnar ? Path.of("localsearch.col") : null, "time slot", "time (ms)", "cost");
+        }
+
+        int indexPod =  ThreadLocalRandom.current().nextInt(0, 6);
+        int indexNode =  ThreadLocalRandom.current().nextInt(0, 4);
+
+        int numPods = 5000;
+        int numNodes = 100;
+
+        Instance instance;
+        WorkloadTrace trace = null;
+        long slotEnd = 0;
+
+        if (!snapshotPath.isEmpty()) {
+            ClusterState snapshot = ClusterSnapshot.read(Path.of(snapshotPath), new ClusterState(0, 0));
+
+            numPods = snapshot.numPods;
+            numNodes = snapshot.numNodes;
+
+            instance = new Instance(numPods, numNodes);
+            instance.loadFrom(snapshot);
+            placementConstraints = snapshot.hasPlacementConstraints();
+
+            System.out.println("Loaded " + snapshotPath + " with " + numPods + " pods and " + numNodes + " nodes (cost of its assignment " + snapshot.totalCost() + ") using " + strategy);
+        } else if (tracePath.isEmpty()) {
+            System.out.println("Number of pods: " + numPods + " and Number of Nodes: " + numNodes + " using " + strategy);
+
+            instance = new Instance(numPods, numNodes);
+            instance.setNumResources(numResources);
+            instance.setPlacementConstraints(numLabels, numTaints);
+            instance.setPriorities(numPriorities);
+
+            instance.createPods();
+
+            instance.createNodes();
+        } else {
+            trace = new WorkloadTrace(Path.of(tracePath));
+            instance = new Instance(0, numNodes);
+            instance.setNumResources(numResources);
+            instance.setPlacementConstraints(numLabels, numTaints);
+
+            /* Slots start at the first timestamp; the nodes are sized for the pods of the first one. */
+            slotEnd = trace.hasEvent() ? trace.getTimestamp() + slotLength : 0;
+            instance.replay(trace, slotEnd);
+            numPods = instance.getPods().size();
+
+            if (numPods == 0)
+                throw new IllegalArgumentException("The first slot of " + tracePath + " has no pods; use a longer slotlength");
+
+            System.out.println("Replaying " + tracePath + " with " + numPods + " pods in the first slot and " + numNodes + " nodes using " + strategy);
+
+            instance.createNodes();
+        }
+
+        /* Perform computational experiments with respect to the time horizon. */
+
+        int timeSlot = 0;
+
+        int usedNodes = 0;
+
+        /* The scheduler and the arrays of the state are reused across time slots. */
+        ClusterState state = new ClusterState(numNodes, numPods);
+
+        KubeScheduler kubeScheduler = SchedulingProfiles.create(strategy, instance.getNodes(), nodeAffinity, fitFilter, placementConstraints);
+
+        System.out.println("Fit filter: " + kubeScheduler.fitFilter.getName());
+
+        IncrementalRescheduler rescheduler = new IncrementalRescheduler(state, kubeScheduler).setQueue(queue);
+
+        /* Bounds the optimal cost of every slot, so the gap of the scheduler is known without solving the MIP. */
+        LagrangianBound lagrangianBound = bound ? new LagrangianBound(200, nodeAffinity, boundBudget) : null;
+
+        LocalSearch localSearch = new LocalSearch(localSearchBudget, nodeAffinity, 0);
+
+        /* Time of every phase of every slot, written to kubescheduler-latency.csv at the end. */
+        LatencyHistogram mutationLatency = new LatencyHistogram("instance mutation");
+        LatencyHistogram schedulingLatency = new LatencyHistogram("scheduling");
+        LatencyHistogram podLatency = new LatencyHistogram("schedulePod (1 in " + POD_SAMPLE_INTERVAL + " pods)");
+        LatencyHistogram costLatency = new LatencyHistogram("cost evaluation");
+        LatencyHistogram localSearchLatency = new LatencyHistogram("local search");
+        LatencyHistogram boundLatency = new LatencyHistogram("lower bound");
+        LatencyHistogram outputLatency = new LatencyHistogram("output");
+        LatencyHistogram slotLatency = new LatencyHistogram("slot");
+
+        while (timeSlot < totalTime) {
+
+            long schedulingStart = System.nanoTime();
+
+            /* Pods scheduled in this slot: all of them in full mode, only the arrivals in incremental mode. */
+            int scheduledPods;
+
+            if (incremental && timeSlot > 0) {
+                rescheduler.apply(instance);
+                scheduledPods = instance.getChangeLog().getAddedCount();
+            } else if (incremental || queue != null) {
+                rescheduler.load(instance);
+                scheduledPods = state.numPods;
+            } else {
+                instance.loadInto(state);
+                kubeScheduler.reset(state);
+
+                for (int j = 0; j < state.numPods; j++) {
+                    if (j % POD_SAMPLE_INTERVAL != 0) {
+                        kubeScheduler.schedulePod(state, j);
+                        continue;
+                    }
+
+                    long podStart = System.nanoTime();
+                    int allocatedNode = kubeScheduler.schedulePod(state, j);
+                    podLatency.record(System.nanoTime() - podStart);
+
+                    //if (allocatedNode < 0)
+                    //    System.out.println("Unable to allocate pod " + j + " with resource usage " + state.podSize[j] + " to any node.");
+                }
+                scheduledPods = state.numPods;
+            }
+
+            long slotTime = System.nanoTime() - schedulingStart;
+            schedulingLatency.record(slotTime);
+
+            double throughput = scheduledPods / (slotTime / 1e9);
+
+            numNodes = state.numNodes;
+            numPods = state.numPods;
+
+            long costStart = System.nanoTime();
+
+            usedNodes = state.usedNodes();
+
+            // Calculate quality score: opening cost of the opened nodes plus the allocation cost of each pod
+            double totalCost = state.totalCost();
+
+            costLatency.record(System.nanoTime() - costStart);
+
+            /* The time (ms) column keeps its meaning: scheduling plus cost, without the optional local search and bound. */
+            double elapsedTime = (System.nanoTime() - schedulingStart) / 1e6;
+
+            double localSearchCost = totalCost;
+
+            if (localSearchBudget > 0) {
+                long localSearchStart = System.nanoTime();
+                localSearchCost = localSearch.improve(state);
+                localSearchLatency.record(System.nanoTime() - localSearchStart);
+
+                /* The search moved pods behind the scheduler, which keeps the state for the next slot in incremental mode. */
+                kubeScheduler.reset(state);
+
+                for (int t = 0; t < localSearch.getTraceLength(); t++)
+                    sinkLocalSearch.add(timeSlot).add(localSearch.getTraceTime(t)).add(localSearch.getTraceCost(t)).endRow();
+            }
+
+            String lowerBound = "-";
+            String gap = "-";
+            String repairedCost = "-";
+            String boundTime = "-";
+            String localSearchGap = "-";
+
+            if (lagrangianBound != null) {
+                /* A scheduler that left pods pending has no feasible cost to bound the step size with. */
+                long boundStart = System.nanoTime();
+                lowerBound = String.valueOf(lagrangianBound.compute(state, state.assignedPods() == numPods ? localSearchCost : Double.POSITIVE_INFINITY));
+                long boundNanos = System.nanoTime() - boundStart;
+                boundLatency.record(boundNanos);
+
+                gap = String.valueOf(lagrangianBound.gap(totalCost));
+                repairedCost = String.valueOf(lagrangianBound.getRepairedCost());
+                boundTime = String.valueOf(boundNanos / 1e6);
+                localSearchGap = String.valueOf(lagrangianBound.gap(localSearchCost));
+            }
+
+            /* Everything the slot did before its output: scheduling, cost, local search and bound. */
+            long slotNanos = System.nanoTime() - schedulingStart;
+            slotLatency.record(slotNanos);
+
+            long outputStart = System.nanoTime();
+
+            System.out.println("Total Cost: " + totalCost);
+            if (lagrangianBound != null)
+                System.out.println("Lower bound: " + lowerBound + " (gap " + gap + ", repaired cost " + repairedCost + ", " + boundTime + " ms)");
+            if (localSearchBudget > 0)
+                System.out.println("Local search cost: " + localSearchCost + " (gap " + localSearchGap + ")");
+            System.out.println("Total time taken: " + elapsedTime + " ms");
+            if (localSearchBudget > 0 || lagrangianBound != null)
+                System.out.println("Whole slot time: " + slotNanos / 1e6 + " ms");
+            System.out.println("Throughput: " + throughput + " pods/s");
+            System.out.println("Slot time (" + (incremental ? "incremental" : "full") + "): " + slotTime / 1e6 + " ms");
+            System.out.println("Pending pods: " + (numPods - state.assignedPods()));
+
+            sinkKubescheduler.add(timeSlot).add(numPods).add(usedNodes).add(totalCost).add(elapsedTime).add(strategy).add(throughput)
+                    .add(incremental ? "incremental" : "full").add(slotTime / 1e6).add(lowerBound).add(gap).add(repairedCost)
+                    .add(boundTime).add(localSearchCost).add(localSearchGap).add(slotNanos / 1e6).endRow();
+
+            sinkKubescheduler.flush();
+            if (sinkLocalSearch != null)
+                sinkLocalSearch.flush();
+
+            sinkPodsPending.add(numPods).add(numNodes).add(timeSlot).add(numPods - state.assignedPods());
+            if (queue != null)
+                sinkPodsPending.add(queue.getActiveCount()).add(queue.getBackoffCount()).add(queue.getUnschedulableCount());
+            sinkPodsPending.endRow();
+            sinkPodsPending.flush();
+
+            if (!dumpDirectory.isEmpty())
+                ClusterSnapshot.write(state, Path.of(dumpDirectory, "slot-" + timeSlot + ".snap"));
+            //writerFormulation.flush();
+
+            outputLatency.record(System.nanoTime() - outputStart);
+
+            long mutationStart = System.nanoTime();
+
+            if (trace == null) {
+                instance.modifyNumberPods();
+            } else {
+                slotEnd += slotLength;
+                instance.replay(trace, slotEnd);
+            }
+
+            mutationLatency.record(System.nanoTime() - mutationStart);
+
+            timeSlot++;
+        }
+
+        if (trace != null)
+            trace.close();
+
+        List<LatencyHistogram> latencies = new ArrayList<>(List.of(mutationLatency, schedulingLatency, podLatency, costLatency, localSearchLatency,
+                boundLatency, outputLatency, slotLatency));
+
+        if (queue != null)
+            latencies.addAll(queue.getLatencies());
+
+        LatencyHistogram.write("kubescheduler-latency.csv", latencies.toArray(new LatencyHistogram[0]));
+
+
+        sinkKubescheduler.close();
+        if (sinkLocalSearch != null)
+            sinkLocalSearch.close();
+        sinkPodsPending.close();
+        //writerFormulation.close();
+    }
+
+    /* Returns the value of a key=value argument, or the default when it is absent. */
+    static String option(String[] args, String key, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(key + "="))
+                return arg.substring(key.length() + 1);
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,525 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+/*
+ * Lower bound on the placement cost without a MIP solve: Lagrangian relaxation of the assignment constraints
+ * (AtendimentoPod_j) with a multiplier lambda per pod, solved by subgradient optimisation. Interchangeable pods have
+ * equal multipliers at the optimum, so there is one lambda per PodTypes type.
+ *
+ * With the assignment constraints in the objective the problem splits by node: node i opens if alpha_i minus the best
+ * gain sum (lambda_k - c_ik) z_ik of a knapsack of capacity U_i is negative. The knapsack is solved as its LP
+ * relaxation, which keeps the bound valid and needs no sort of the types.
+ * The knapsacks are independent and run in parallel across nodes. A repair packs the pods into the nodes the relaxation
+ * opens, adding the next best nodes when they lack room, and gives a feasible solution and the upper bound for the
+ * step size.
+ *
+ * Only the first resource and the affinity label of NodeAffinityFilter are modelled: the other resources and the
+ * placement constraints of the pods are relaxed, which keeps the bound valid, and the repair ignores them as well.
+ */
+class LagrangianBound {
+    /* Below this many nodes the fork/join overhead outweighs solving the knapsacks in parallel. */
+    static final int PARALLEL_THRESHOLD = 128;
+
+    private int maxIterations;
+    private boolean nodeAffinity;
+    /* Nanoseconds a compute may take before its subgradient stops; the bound stays valid, only less tight. */
+    private long timeBudget;
+
+    private ClusterState state;
+    private PodTypes types;
+    private int numNodes;
+    private double[][] cost;
+    private int[][] nodesByCost;
+    private double[] inverseSize;
+    private int[] typesBySize;
+    private int[] typesBySizeAscending;
+    /* Nodes by allocation cost plus the opening cost spread over the pods the node can take, best first. */
+    private int[] attractiveness;
+
+    private double[] lambda;
+
+    /* Per node: the types with a positive gain by decreasing gain per usage, and that gain per usage. */
+    private int[][] order;
+    private double[][] ratio;
+    /* Per node: Lagrangian value, number of types taken whole (in order) and the fraction taken of the next one. */
+    private double[] value;
+    private int[] whole;
+    private double[] fraction;
+
+    private double lowerBound;
+    private double repairedCost;
+    /* Whether the state has constraints the bound relaxes, so the repaired solution may break them. */
+    private boolean relaxed;
+    private int[][] repairedCounts;
+
+    private int[][] counts;
+    private int[] residual;
+    private boolean[] active;
+
+    /* With nodeAffinity, only the nodes labelled with affinity may take pods, as with NodeAffinityFilter. */
+    public LagrangianBound(int maxIterations, boolean nodeAffinity) {
+        this(maxIterations, nodeAffinity, Double.POSITIVE_INFINITY);
+    }
+
+    /* Stops after timeBudget milliseconds as well, counting the preparation; at least one iteration always runs. */
+    public LagrangianBound(int maxIterations, boolean nodeAffinity, double timeBudget) {
+        this.maxIterations = maxIterations;
+        this.nodeAffinity = nodeAffinity;
+        this.timeBudget = timeBudget >= Long.MAX_VALUE / 1e6 ? Long.MAX_VALUE : (long) (timeBudget * 1e6);
+    }
+
+    /*
+     * Computes the bound for the pods and nodes of the state, whose assignment is left untouched. upperBound is the
+     * cost of a known feasible solution, or positive infinity.
+     */
+    public double compute(ClusterState state, double upperBound) {
+        long startTime = System.nanoTime();
+        this.state = state;
+        relaxed = state.numResources > 1 || state.hasPlacementConstraints();
+        prepare();
+
+        if (types.demand > eligibleCapacity()) {
+            lowerBound = Double.POSITIVE_INFINITY;
+            repairedCost = Double.POSITIVE_INFINITY;
+            return lowerBound;
+        }
+
+        /* Every pod pays at least its cheapest allocation plus its share of the opening cost by usage. */
+        for (int k = 0; k < types.numTypes; k++) {
+            lambda[k] = Double.POSITIVE_INFINITY;
+
+            for (int i = 0; i < numNodes; i++) {
+                if (eligible(i))
+                    lambda[k] = Math.min(lambda[k], cost[k][i] + state.nodeOpeningCost[i] * types.size[k] / state.nodeCapacity[i]);
+            }
+        }
+
+        lowerBound = Double.NEGATIVE_INFINITY;
+        repairedCost = Double.POSITIVE_INFINITY;
+
+        double[] subgradient = new double[types.numTypes];
+        double theta = 2.0;
+        int stalled = 0;
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double bound = evaluate(subgradient);
+
+            if (bound > lowerBound) {
+                lowerBound = bound;
+                repair();
+                stalled = 0;
+            } else if (++stalled == 10) {
+                theta /= 2;
+                stalled = 0;
+            }
+
+            double target = Math.min(upperBound, repairedCost);
+            double norm = 0.0;
+
+            for (int k = 0; k < types.numTypes; k++)
+                norm += subgradient[k] * subgradient[k];
+
+            /* A zero subgradient means the relaxed solution serves every pod exactly once, so the bound is optimal. */
+            if (norm == 0.0 || theta < 1e-3 || target - lowerBound <= 1e-6 * Math.abs(target))
+                break;
+
+            if (System.nanoTime() - startTime >= timeBudget)
+                break;
+
+            double step = theta * (target - bound) / norm;
+
+            for (int k = 0; k < types.numTypes; k++)
+                lambda[k] += step * subgradient[k];
+        }
+
+        return lowerBound;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /* Cost of the best feasible solution the repair found, or positive infinity when it may break a relaxed constraint. */
+    public double getRepairedCost() {
+        return relaxed ? Double.POSITIVE_INFINITY : repairedCost;
+    }
+
+    /* Relative gap between the cost of a solution and the lower bound. */
+    public double gap(double cost) {
+        return cost == 0.0 ? 0.0 : (cost - lowerBound) / Math.abs(cost);
+    }
+
+    /* Assigns the pods of the state as in the repaired solution. */
+    public void assignRepaired(ClusterState state) {
+        state.clearAssignment();
+
+        for (int k = 0; k < types.numTypes; k++) {
+            int next = types.start[k];
+
+            for (int i = 0; i < numNodes; i++) {
+                for (int c = 0; c < repairedCounts[k][i]; c++)
+                    state.assign(types.pods[next++], i);
+            }
+        }
+    }
+
+    /* Value of the Lagrangian dual at lambda; fills the subgradient n_k - sum_i z_ik. */
+    private double evaluate(double[] subgradient) {
+        if (numNodes >= PARALLEL_THRESHOLD)
+            IntStream.range(0, numNodes).parallel().forEach(this::knapsack);
+        else
+            for (int i = 0; i < numNodes; i++)
+                knapsack(i);
+
+        double bound = 0.0;
+
+        for (int k = 0; k < types.numTypes; k++) {
+            bound += lambda[k] * types.count[k];
+            subgradient[k] = types.count[k];
+        }
+
+        /* At least one node is open (MinimoNodes): when no value is negative, the smallest one is paid. */
+        int cheapest = -1;
+        boolean anyOpen = false;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (!eligible(i))
+                continue;
+
+            if (value[i] < 0) {
+                bound += value[i];
+                anyOpen = true;
+                takeFromSubgradient(i, subgradient);
+            } else if (cheapest < 0 || value[i] < value[cheapest]) {
+                cheapest = i;
+            }
+        }
+
+        if (!anyOpen && cheapest >= 0) {
+            bound += value[cheapest];
+            takeFromSubgradient(cheapest, subgradient);
+        }
+
+        return bound;
+    }
+
+    private void takeFromSubgradient(int i, double[] subgradient) {
+        int[] nodeOrder = order[i];
+
+        for (int r = 0; r < whole[i]; r++)
+            subgradient[nodeOrder[r]] -= types.count[nodeOrder[r]];
+
+        if (fraction[i] > 0)
+            subgradient[nodeOrder[whole[i]]] -= fraction[i];
+    }
+
+    /* LP relaxation of the knapsack of node i. */
+    private void knapsack(int i) {
+        if (!eligible(i))
+            return;
+
+        int[] nodeOrder = order[i];
+        double[] nodeRatio = ratio[i];
+        double allocation = state.nodeAllocationCost[i];
+        double penalization = state.errorWeight * state.nodePenalization[i];
+
+        /* Only the types with a positive gain enter the knapsack. */
+        int candidates = 0;
+
+        for (int k = 0; k < types.numTypes; k++) {
+            double unitGain = lambda[k] - allocation - penalization * types.errors[k];
+
+            if (unitGain > 0) {
+                nodeOrder[candidates] = k;
+                nodeRatio[candidates++] = unitGain * inverseSize[k];
+            }
+        }
+
+        /*
+         * The LP optimum takes the types by decreasing gain per usage up to the one that fills the capacity. Instead of
+         * sorting, the candidates are partitioned around a pivot as in quickselect: the better side is taken whole when
+         * it fits and the search goes on in the worse side, otherwise it goes on in the better side. The types taken
+         * whole end up in front of the order, and the work is linear in the candidates on average.
+         */
+        double gain = 0.0;
+        long capacity = state.nodeCapacity[i];
+        int from = 0;
+        int to = candidates - 1;
+
+        while (from <= to) {
+            double pivot = nodeRatio[(from + to) >>> 1];
+            int better = from;
+            int worse = to;
+            int r = from;
+
+            while (r <= worse) {
+                if (nodeRatio[r] > pivot)
+                    swap(nodeRatio, nodeOrder, better++, r++);
+                else if (nodeRatio[r] < pivot)
+                    swap(nodeRatio, nodeOrder, r, worse--);
+                else
+                    r++;
+            }
+
+            long betterUsage = 0;
+            double betterGain = 0.0;
+
+            for (r = from; r < better; r++) {
+                int k = nodeOrder[r];
+                betterUsage += (long) types.count[k] * types.size[k];
+                betterGain += types.count[k] * nodeRatio[r] * types.size[k];
+            }
+
+            if (betterUsage > capacity) {
+                to = better - 1;
+                continue;
+            }
+
+            gain += betterGain;
+            capacity -= betterUsage;
+
+            /* Types with the pivot ratio are interchangeable; take them in turn until one does not fit. */
+            for (r = better; r <= worse; r++) {
+                int k = nodeOrder[r];
+                long usage = (long) types.count[k] * types.size[k];
+
+                if (usage > capacity) {
+                    double taken = (double) capacity / types.size[k];
+
+                    value[i] = state.nodeOpeningCost[i] - gain - taken * nodeRatio[r] * types.size[k];
+                    whole[i] = r;
+                    fraction[i] = taken;
+                    return;
+                }
+
+                gain += types.count[k] * nodeRatio[r] * types.size[k];
+                capacity -= usage;
+            }
+
+            from = worse + 1;
+        }
+
+        value[i] = state.nodeOpeningCost[i] - gain;
+        whole[i] = from;
+        fraction[i] = 0.0;
+    }
+
+    private static void swap(double[] ratio, int[] order, int a, int b) {
+        double r = ratio[a];
+        ratio[a] = ratio[b];
+        ratio[b] = r;
+
+        int o = order[a];
+        order[a] = order[b];
+        order[b] = o;
+    }
+
+    /*
+     * Feasible solution from the multipliers of a new best bound. Nodes are activated in an order until they can hold
+     * the demand, and the pods are packed first-fit in that order, largest type first, and also into their cheapest
+     * active nodes, largest or smallest type first; when no packing fits every pod, the next node is activated.
+     * Two orders are tried: increasing Lagrangian value, which the multipliers make aware of the pods a node attracts,
+     * and increasing allocation cost plus opening cost per pod, which does not depend on how far they have converged.
+     */
+    private void repair() {
+        repair(sortedIndices(value, numNodes));
+        repair(attractiveness);
+    }
+
+    private void repair(int[] nodeOrder) {
+        int[] activation = new int[numNodes];
+        int eligibleNodes = 0;
+
+        for (int i : nodeOrder) {
+            if (eligible(i))
+                activation[eligibleNodes++] = i;
+        }
+
+        Arrays.fill(active, false);
+        long activeCapacity = 0;
+        int next = 0;
+
+        while (next < eligibleNodes && activeCapacity < Math.max(types.demand, 1)) {
+            active[activation[next]] = true;
+            activeCapacity += state.nodeCapacity[activation[next++]];
+        }
+
+        while (true) {
+            boolean packed = record(pack(activation, typesBySize));
+            packed |= record(pack(null, typesBySize));
+            /* Smallest first keeps more pods on the cheapest nodes, which pays off when fragmentation does not. */
+            packed |= record(pack(null, typesBySizeAscending));
+
+            if (packed || next == eligibleNodes)
+                return;
+
+            active[activation[next++]] = true;
+        }
+    }
+
+    /* Keeps the packed counts when they beat the repaired solution. Returns false when the packing failed. */
+    private boolean record(double objective) {
+        if (objective == Double.POSITIVE_INFINITY)
+            return false;
+
+        if (objective < repairedCost) {
+            repairedCost = objective;
+
+            for (int k = 0; k < types.numTypes; k++)
+                System.arraycopy(counts[k], 0, repairedCounts[k], 0, numNodes);
+        }
+
+        return true;
+    }
+
+    /*
+     * Packs every type, in the given type order, into the active nodes in the given node order, or in increasing
+     * allocation cost of the type when the node order is null. Returns the cost of the packing, or positive infinity
+     * when some pods are left over.
+     */
+    private double pack(int[] nodeOrder, int[] typeOrder) {
+        double objective = 0.0;
+
+        for (int i = 0; i < numNodes; i++)
+            residual[i] = state.nodeCapacity[i];
+
+        for (int k : typeOrder) {
+            int remaining = types.count[k];
+            Arrays.fill(counts[k], 0);
+
+            for (int i : nodeOrder == null ? nodesByCost[k] : nodeOrder) {
+                if (remaining == 0)
+                    break;
+                if (!active[i])
+                    continue;
+
+                int placed = Math.min(remaining, residual[i] / types.size[k]);
+                counts[k][i] = placed;
+                residual[i] -= placed * types.size[k];
+                remaining -= placed;
+                objective += placed * cost[k][i];
+            }
+
+            if (remaining > 0)
+                return Double.POSITIVE_INFINITY;
+        }
+
+        /* Every pod has a positive usage, so a node holds pods exactly when some of its capacity is taken. */
+        for (int i = 0; i < numNodes; i++) {
+            if (residual[i] < state.nodeCapacity[i])
+                objective += state.nodeOpeningCost[i];
+        }
+
+        return objective;
+    }
+
+    private boolean eligible(int i) {
+        return !nodeAffinity || state.nodeAffinity[i];
+    }
+
+    private long eligibleCapacity() {
+        long capacity = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (eligible(i))
+                capacity += state.nodeCapacity[i];
+        }
+
+        return capacity;
+    }
+
+    private void prepare() {
+        numNodes = state.numNodes;
+        types = new PodTypes(state);
+
+        int numTypes = types.numTypes;
+        cost = new double[numTypes][numNodes];
+        nodesByCost = new int[numTypes][];
+
+        /* The cost order of the nodes depends only on the errors of the type, so types with equal errors share it. */
+        Map<Integer, int[]> orderByErrors = new HashMap<>();
+
+        for (int k = 0; k < numTypes; k++) {
+            for (int i = 0; i < numNodes; i++)
+                cost[k][i] = state.nodeAllocationCost[i] + state.errorWeight * state.nodePenalization[i] * types.errors[k];
+
+            nodesByCost[k] = orderByErrors.get(types.errors[k]);
+
+            if (nodesByCost[k] == null) {
+                nodesByCost[k] = sortedIndices(cost[k], numNodes);
+                orderByErrors.put(types.errors[k], nodesByCost[k]);
+            }
+        }
+
+        inverseSize = new double[numTypes];
+        for (int k = 0; k < numTypes; k++)
+            inverseSize[k] = 1.0 / types.size[k];
+
+        double[] keys = new double[Math.max(numTypes, numNodes)];
+        for (int k = 0; k < numTypes; k++)
+            keys[k] = -types.size[k];
+        typesBySize = sortedIndices(keys, numTypes);
+
+        typesBySizeAscending = new int[numTypes];
+        for (int k = 0; k < numTypes; k++)
+            typesBySizeAscending[k] = typesBySize[numTypes - 1 - k];
+
+        double averageSize = state.numPods == 0 ? 1.0 : (double) types.demand / state.numPods;
+        double averageErrors = 0.0;
+        for (int k = 0; k < numTypes; k++)
+            averageErrors += (double) types.errors[k] * types.count[k] / Math.max(1, state.numPods);
+
+        for (int i = 0; i < numNodes; i++)
+            keys[i] = state.nodeAllocationCost[i] + state.errorWeight * state.nodePenalization[i] * averageErrors
+                    + state.nodeOpeningCost[i] * averageSize / Math.max(1, Math.min(state.nodeCapacity[i], types.demand));
+        attractiveness = sortedIndices(keys, numNodes);
+
+        lambda = new double[numTypes];
+
+        order = new int[numNodes][numTypes];
+        ratio = new double[numNodes][numTypes];
+
+        value = new double[numNodes];
+        whole = new int[numNodes];
+        fraction = new double[numNodes];
+
+        counts = new int[numTypes][numNodes];
+        repairedCounts = new int[numTypes][numNodes];
+        residual = new int[numNodes];
+        active = new boolean[numNodes];
+    }
+
+    /*
+     * Positions 0 .. count - 1 by increasing key, equal keys in position order: a merge sort on primitives, which gives
+     * the order a stable sort of boxed positions would without boxing them and without lambdas to bootstrap.
+     */
+    private static int[] sortedIndices(double[] keys, int count) {
+        int[] sorted = new int[count];
+        int[] buffer = new int[count];
+
+        for (int i = 0; i < count; i++)
+            sorted[i] = i;
+
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int a = low;
+                int b = middle;
+
+                for (int r = low; r < high; r++) {
+                    if (a < middle && (b >= high || Double.compare(keys[sorted[a]], keys[sorted[b]]) <= 0))
+                        buffer[r] = sorted[a++];
+                    else
+                        buffer[r] = sorted[b++];
+                }
+            }
+
+            int[] swap = sorted;
+            sorted = buffer;
+            buffer = swap;
+        }
+
+        return sorted;
+    }
+}
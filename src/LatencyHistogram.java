@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/*
+ * Log-linear histogram of nanosecond latencies: every power of two is split into 32 buckets, so a percentile is off by
+ * at most 1/32 of its value, recording is a few shifts and an increment, and the memory is fixed at 2048 counters
+ * whatever the range. Count, sum and maximum are kept exactly.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private String phase;
+    private long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    public LatencyHistogram(String phase) {
+        this.phase = phase;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        counts[index(nanos)]++;
+        count++;
+        sum += nanos;
+
+        if (nanos > max)
+            max = nanos;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /* Smallest recorded bucket bound with at least the fraction q of the values at or below it, capped at the maximum. */
+    public long percentile(double q) {
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+
+            if (seen >= rank)
+                return Math.min(upperBound(b), max);
+        }
+
+        return max;
+    }
+
+    /* Values below SUB_BUCKETS have a bucket each; above, the bucket is the exponent and the next SUB_BITS bits. */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int b) {
+        if (b < SUB_BUCKETS)
+            return b;
+
+        int shift = b / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + b % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /* Writes one row per histogram, in microseconds, to the given CSV file. */
+    public static void write(String fileName, LatencyHistogram... histograms) throws IOException {
+        FileWriter writer = new FileWriter(new File(fileName));
+
+        writer.write("phase; count; p50 (us); p99 (us); max (us); mean (us) \n");
+
+        for (LatencyHistogram histogram : histograms) {
+            writer.write(histogram.phase + "; " + histogram.count + "; " + histogram.percentile(0.50) / 1e3 + "; " + histogram.percentile(0.99) / 1e3
+                    + "; " + histogram.max / 1e3 + "; " + histogram.getMean() / 1e3 + "\n");
+        }
+
+        writer.close();
+    }
+}
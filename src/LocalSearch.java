@@ -0,0 +1,340 @@
+import java.util.*;
+
+/*
+ * Post-optimisation of the assignment of a ClusterState with three moves:
+ *  - relocate: a pod moves to the cheapest node with room;
+ *  - swap: two pods on different nodes exchange them;
+ *  - close-node: every pod of a used node moves to other used nodes, saving its opening cost.
+ * The cost change of relocate and swap is computed in O(1) from alpha, beta, the error penalization and the errors of
+ * the pods, and close-node sums the relocations of its pods, so the objective is never recomputed. Only improving moves
+ * are applied, until the time budget is used up; pods the scheduler left pending stay unassigned.
+ *
+ * Every improvement is recorded with the time it was found, so the trace shows how the cost drops over the budget.
+ */
+class LocalSearch {
+    /* Moves tried between two reads of the clock. */
+    private static final int BATCH = 256;
+
+    private double timeBudget;
+    /* Moves tried per call of improve; with an unlimited time budget the search is then reproducible for a seed. */
+    private long moveLimit = Long.MAX_VALUE;
+    private boolean nodeAffinity;
+    private SplittableRandom random;
+
+    private ClusterState state;
+    private int numNodes;
+
+    /* Pods of each node as doubly linked lists over pod positions, so moving a pod updates them in O(1). */
+    private int[] head;
+    private int[] next;
+    private int[] previous;
+
+    /* Used nodes, with the position of each node in the array or -1, so a random used node is picked in O(1). */
+    private int[] usedNodes;
+    private int[] usedPosition;
+    private int numUsed;
+    /* Capacity and usage summed over the used nodes. */
+    private long usedCapacity;
+    private long usedLoad;
+
+    /* Pods with a node, for picking random pods to move. */
+    private int[] assigned;
+    private int numAssigned;
+
+    /* Pods of the node closeNode is emptying, in the order they are moved; no node holds more than every pod. */
+    private int[] closingPods;
+
+    private double[] traceTime = new double[16];
+    private double[] traceCost = new double[16];
+    private int traceLength;
+
+    /*
+     * timeBudget is in milliseconds. With nodeAffinity, pods only move to nodes labelled with affinity; pods never move
+     * to nodes their placement constraints rule out, see ClusterState.eligible.
+     */
+    public LocalSearch(double timeBudget, boolean nodeAffinity, long seed) {
+        this.timeBudget = timeBudget;
+        this.nodeAffinity = nodeAffinity;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public void setMoveLimit(long moveLimit) {
+        this.moveLimit = moveLimit;
+    }
+
+    /* Improves the assignment of the state in place and returns its cost. */
+    public double improve(ClusterState state) {
+        long startTime = System.nanoTime();
+        /* An infinite budget saturates at Long.MAX_VALUE, and the elapsed time is compared so it cannot overflow. */
+        long budget = (long) (timeBudget * 1e6);
+
+        this.state = state;
+        prepare();
+
+        traceLength = 0;
+        trace(startTime);
+
+        double recordedCost = state.totalCost();
+
+        for (long moves = 0; numAssigned > 0 && moves < moveLimit && System.nanoTime() - startTime < budget; moves += BATCH) {
+            for (int move = 0; move < BATCH; move++) {
+                int kind = random.nextInt(16);
+
+                /* close-node costs a scan of the used nodes per pod of the node, so it is tried least. */
+                if (kind < 10)
+                    relocate(assigned[random.nextInt(numAssigned)]);
+                else if (kind < 15)
+                    swap(assigned[random.nextInt(numAssigned)], assigned[random.nextInt(numAssigned)]);
+                else
+                    closeNode(usedNodes[random.nextInt(numUsed)]);
+            }
+
+            if (state.totalCost() < recordedCost) {
+                recordedCost = state.totalCost();
+                trace(startTime);
+            }
+        }
+
+        return state.totalCost();
+    }
+
+    public int getTraceLength() {
+        return traceLength;
+    }
+
+    /* Milliseconds since the start of improve when the t-th cost of the trace was reached. */
+    public double getTraceTime(int t) {
+        return traceTime[t];
+    }
+
+    public double getTraceCost(int t) {
+        return traceCost[t];
+    }
+
+    /* Moves pod j to the node that lowers the cost the most, if any. */
+    private void relocate(int j) {
+        int best = -1;
+        double bestDelta = -1e-9;
+
+        for (int i = 0; i < numNodes; i++) {
+            double delta = relocateDelta(j, i);
+
+            if (delta < bestDelta) {
+                bestDelta = delta;
+                best = i;
+            }
+        }
+
+        if (best >= 0)
+            move(j, best);
+    }
+
+    /* Cost change of moving pod j to node target, or positive infinity when it is not allowed. */
+    private double relocateDelta(int j, int target) {
+        int source = state.podNode[j];
+
+        if (target == source || !eligible(j, target) || !state.fits(j, target))
+            return Double.POSITIVE_INFINITY;
+
+        double delta = state.allocationCost(target, j) - state.allocationCost(source, j);
+
+        if (state.nodePodCount[source] == 1)
+            delta -= state.nodeOpeningCost[source];
+        if (state.nodePodCount[target] == 0)
+            delta += state.nodeOpeningCost[target];
+
+        return delta;
+    }
+
+    /* Exchanges the nodes of pods a and b when both fit and the cost drops. */
+    private void swap(int a, int b) {
+        int nodeA = state.podNode[a];
+        int nodeB = state.podNode[b];
+
+        if (nodeA == nodeB)
+            return;
+
+        int sizeA = state.podSize[a];
+        int sizeB = state.podSize[b];
+
+        if (state.nodeUsed[nodeA] - sizeA + sizeB > state.nodeCapacity[nodeA] || state.nodeUsed[nodeB] - sizeB + sizeA > state.nodeCapacity[nodeB])
+            return;
+
+        if (!state.eligible(a, nodeB) || !state.eligible(b, nodeA))
+            return;
+
+        double delta = state.allocationCost(nodeB, a) + state.allocationCost(nodeA, b) - state.allocationCost(nodeA, a) - state.allocationCost(nodeB, b);
+
+        if (delta < -1e-9) {
+            /* b leaves first, so the node of b never holds both pods at once. */
+            move(b, -1);
+            move(a, nodeB);
+            move(b, nodeA);
+        }
+    }
+
+    /*
+     * Moves every pod of the node to the cheapest other used node with room. The moves are applied as they are chosen,
+     * since each one takes capacity from its target, and undone when some pod has no room or the cost does not drop.
+     */
+    private void closeNode(int node) {
+        /* The other used nodes must have room for the pods of the node, which the running sums tell in O(1). */
+        long otherResidual = usedCapacity - state.nodeCapacity[node] - (usedLoad - state.nodeUsed[node]);
+
+        if (otherResidual < state.nodeUsed[node])
+            return;
+
+        int count = state.nodePodCount[node];
+        int n = 0;
+
+        for (int j = head[node]; j >= 0; j = next[j])
+            closingPods[n++] = j;
+
+        double total = 0.0;
+        int moved = 0;
+        boolean closed = true;
+
+        while (moved < count) {
+            int j = closingPods[moved];
+            int best = -1;
+            double bestDelta = Double.POSITIVE_INFINITY;
+
+            for (int u = 0; u < numUsed; u++) {
+                int i = usedNodes[u];
+                double delta = relocateDelta(j, i);
+
+                if (delta < bestDelta) {
+                    bestDelta = delta;
+                    best = i;
+                }
+            }
+
+            if (best < 0) {
+                closed = false;
+                break;
+            }
+
+            total += bestDelta;
+            move(j, best);
+            moved++;
+
+            /* The allocation costs already exceed the opening cost the last move saves. */
+            if (moved < count && total >= state.nodeOpeningCost[node]) {
+                closed = false;
+                break;
+            }
+        }
+
+        if (closed && total < -1e-9)
+            return;
+
+        for (int m = 0; m < moved; m++)
+            move(closingPods[m], node);
+    }
+
+    /* Reassigns pod j to node target, or only unassigns it when target is -1; keeps the lists of the search in step. */
+    private void move(int j, int target) {
+        int source = state.podNode[j];
+
+        if (source >= 0) {
+            usedLoad -= state.podSize[j];
+            state.unassign(j);
+            unlink(j, source);
+
+            if (state.nodePodCount[source] == 0)
+                removeUsed(source);
+        }
+
+        if (target >= 0) {
+            if (state.nodePodCount[target] == 0)
+                addUsed(target);
+
+            usedLoad += state.podSize[j];
+            state.assign(j, target);
+            link(j, target);
+        }
+    }
+
+    private void link(int j, int i) {
+        previous[j] = -1;
+        next[j] = head[i];
+
+        if (head[i] >= 0)
+            previous[head[i]] = j;
+
+        head[i] = j;
+    }
+
+    private void unlink(int j, int i) {
+        if (previous[j] >= 0)
+            next[previous[j]] = next[j];
+        else
+            head[i] = next[j];
+
+        if (next[j] >= 0)
+            previous[next[j]] = previous[j];
+    }
+
+    private void addUsed(int i) {
+        usedCapacity += state.nodeCapacity[i];
+        usedPosition[i] = numUsed;
+        usedNodes[numUsed++] = i;
+    }
+
+    /* Swap-remove: the last used node takes the place of the removed one. */
+    private void removeUsed(int i) {
+        usedCapacity -= state.nodeCapacity[i];
+        int last = usedNodes[--numUsed];
+        usedNodes[usedPosition[i]] = last;
+        usedPosition[last] = usedPosition[i];
+        usedPosition[i] = -1;
+    }
+
+    private boolean eligible(int j, int i) {
+        return (!nodeAffinity || state.nodeAffinity[i]) && state.eligible(j, i);
+    }
+
+    private void trace(long startTime) {
+        if (traceLength == traceTime.length) {
+            traceTime = Arrays.copyOf(traceTime, traceLength * 2);
+            traceCost = Arrays.copyOf(traceCost, traceLength * 2);
+        }
+
+        traceTime[traceLength] = (System.nanoTime() - startTime) / 1e6;
+        traceCost[traceLength++] = state.totalCost();
+    }
+
+    private void prepare() {
+        numNodes = state.numNodes;
+
+        head = new int[numNodes];
+        Arrays.fill(head, -1);
+        next = new int[state.numPods];
+        previous = new int[state.numPods];
+
+        usedNodes = new int[numNodes];
+        usedPosition = new int[numNodes];
+        Arrays.fill(usedPosition, -1);
+        numUsed = 0;
+        usedCapacity = 0;
+        usedLoad = 0;
+
+        assigned = new int[state.numPods];
+        numAssigned = 0;
+        closingPods = new int[state.numPods];
+
+        for (int j = 0; j < state.numPods; j++) {
+            int i = state.podNode[j];
+
+            if (i < 0)
+                continue;
+
+            if (usedPosition[i] < 0)
+                addUsed(i);
+
+            link(j, i);
+            usedLoad += state.podSize[j];
+            assigned[numAssigned++] = j;
+        }
+    }
+}
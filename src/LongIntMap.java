@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/*
+ * Map from any long to a non-negative int, such as the ids of a replayed trace to the ids of the live pods. The keys
+ * and values are parallel arrays of an open-addressing table with linear probing, kept at most half full, so a lookup
+ * is a few reads of consecutive slots and nothing is boxed. Removal shifts the following entries of the run back
+ * instead of leaving tombstones, so a table with as much churn as insertions does not fill up.
+ */
+class LongIntMap {
+    /* What get and remove return for a key that is not in the map. */
+    static final int MISSING = -1;
+
+    private long[] keys = new long[16];
+    private int[] values = new int[16];
+    private boolean[] used = new boolean[16];
+    private int size;
+    private int mask = 15;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    /* Value of the key, or MISSING. */
+    public int get(long key) {
+        int k = find(key);
+        return used[k] ? values[k] : MISSING;
+    }
+
+    /* Sets the value of the key, which must not be negative. */
+    public void put(long key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("LongIntMap values are zero or more, not " + value);
+
+        int k = find(key);
+
+        if (!used[k]) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                k = find(key);
+            }
+
+            keys[k] = key;
+            used[k] = true;
+            size++;
+        }
+
+        values[k] = value;
+    }
+
+    /* Removes the key and returns its value, or MISSING when it was not in the map. */
+    public int remove(long key) {
+        int k = find(key);
+
+        if (!used[k])
+            return MISSING;
+
+        int value = values[k];
+        size--;
+
+        /* Moves back every entry after the hole whose probe started at or before it, until the run ends. */
+        int hole = k;
+
+        for (int next = (k + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+
+        used[hole] = false;
+
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /* The slot of the key, or the empty slot where it would go. */
+    private int find(long key) {
+        int k = slot(key);
+
+        while (used[k] && keys[k] != key)
+            k = (k + 1) & mask;
+
+        return k;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        mask = keys.length - 1;
+
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (!oldUsed[k])
+                continue;
+
+            int slot = find(oldKeys[k]);
+            keys[slot] = oldKeys[k];
+            values[slot] = oldValues[k];
+            used[slot] = true;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Parallel multi-start heuristic for instances where the MIP is too slow: each of threads workers repeats a randomised
+ * greedy construction followed by a LocalSearch run on its own copy of the state, and offers every solution to a
+ * shared incumbent that is replaced by compare-and-set, so the workers never lock.
+ *
+ * Every worker has its own SplittableRandom split from the seed in worker order. With starts > 0 a worker stops after
+ * that many starts, each local search is bounded by a number of moves, and ties between equal costs go to the lowest
+ * start, so the result only depends on the seed and the number of threads as long as the time limit is not reached.
+ * With starts = 0 the workers run until the time limit.
+ *
+ * The Lagrangian bound of the instance gives the lower bound of the result.
+ */
+class MultiStartSolver implements PlacementSolver {
+    /* Candidates the construction picks a node from at random. */
+    private static final int CANDIDATES = 3;
+    /* Local-search moves per start, per pod of the instance. */
+    private static final int MOVES_PER_POD = 10;
+
+    private double mipGap;
+    private double timeLimit;
+    private int threads;
+    private int starts;
+    private long seed;
+
+    private LagrangianBound lagrangianBound = new LagrangianBound(200, false);
+
+    /* Best solution offered so far; replaced as a whole, never modified. */
+    private static class Incumbent {
+        final double cost;
+        final long start;
+        final int[] podNode;
+
+        Incumbent(double cost, long start, int[] podNode) {
+            this.cost = cost;
+            this.start = start;
+            this.podNode = podNode;
+        }
+
+        boolean isBeatenBy(double otherCost, long otherStart) {
+            return otherCost < cost || (otherCost == cost && otherStart < start);
+        }
+    }
+
+    /* timeLimit is in seconds; starts is per worker, 0 for as many as the time limit allows. */
+    public MultiStartSolver(double mipGap, double timeLimit, int threads, int starts, long seed) {
+        this.mipGap = mipGap;
+        this.timeLimit = timeLimit;
+        this.threads = threads;
+        this.starts = starts;
+        this.seed = seed;
+    }
+
+    public PlacementResult solve(ClusterState state) {
+        long startTime = System.nanoTime();
+        long deadline = timeLimit >= Long.MAX_VALUE / 1e9 ? Long.MAX_VALUE : (long) (timeLimit * 1e9);
+
+        AtomicReference<Incumbent> best = new AtomicReference<>();
+        List<Callable<Void>> workers = new ArrayList<>();
+        SplittableRandom root = new SplittableRandom(seed);
+
+        for (int w = 0; w < threads; w++) {
+            int worker = w;
+            SplittableRandom random = root.split();
+
+            workers.add(() -> {
+                search(state.copyInstance(), worker, random, best, startTime, deadline);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            for (Future<Void> result : pool.invokeAll(workers))
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Multi-start search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Multi-start worker failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        state.clearAssignment();
+        Incumbent incumbent = best.get();
+
+        if (incumbent == null)
+            return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, elapsed(startTime));
+
+        for (int j = 0; j < state.numPods; j++)
+            state.assign(j, incumbent.podNode[j]);
+
+        double lowerBound = lagrangianBound.compute(state, state.totalCost());
+        int status = lagrangianBound.gap(state.totalCost()) <= mipGap ? PlacementResult.GAP_REACHED : PlacementResult.GAP_NOT_PROVEN;
+
+        return new PlacementResult(status, state.totalCost(), lowerBound, elapsed(startTime));
+    }
+
+    private void search(ClusterState copy, int worker, SplittableRandom random, AtomicReference<Incumbent> best, long startTime, long deadline) {
+        int[] order = new int[copy.numPods];
+        long[] keys = new long[copy.numPods];
+
+        for (int s = 0; starts == 0 || s < starts; s++) {
+            long remaining = deadline - (System.nanoTime() - startTime);
+
+            if (remaining <= 0)
+                return;
+
+            if (!construct(copy, random, order, keys))
+                continue;
+
+            LocalSearch localSearch = new LocalSearch(remaining / 1e6, false, random.nextLong());
+            localSearch.setMoveLimit((long) MOVES_PER_POD * copy.numPods);
+            double cost = localSearch.improve(copy);
+
+            offer(best, cost, (long) worker * Integer.MAX_VALUE + s, copy);
+        }
+    }
+
+    /*
+     * Places the pods largest first, in random order within a size, each on one of the CANDIDATES cheapest nodes with
+     * room chosen at random. A closed node is charged its opening cost in proportion to the share of its capacity the
+     * pod takes. Returns false when some pod fits nowhere.
+     */
+    private boolean construct(ClusterState copy, SplittableRandom random, int[] order, long[] keys) {
+        int numPods = copy.numPods;
+        copy.clearAssignment();
+
+        for (int j = 0; j < numPods; j++)
+            order[j] = j;
+
+        for (int j = numPods - 1; j > 0; j--) {
+            int k = random.nextInt(j + 1);
+            int pod = order[j];
+            order[j] = order[k];
+            order[k] = pod;
+        }
+
+        /* Larger sizes first; the shuffled position breaks ties, and is what the key decodes to. */
+        for (int p = 0; p < numPods; p++)
+            keys[p] = ((long) -copy.podSize[order[p]] << 32) | p;
+
+        Arrays.sort(keys, 0, numPods);
+
+        int[] candidate = new int[CANDIDATES];
+        double[] score = new double[CANDIDATES];
+
+        for (int p = 0; p < numPods; p++) {
+            int j = order[(int) keys[p]];
+            int found = 0;
+
+            for (int i = 0; i < copy.numNodes; i++) {
+                if (!copy.fits(j, i))
+                    continue;
+
+                double value = copy.allocationCost(i, j);
+
+                if (copy.nodePodCount[i] == 0)
+                    value += copy.nodeOpeningCost[i] * copy.podSize[j] / copy.nodeCapacity[i];
+
+                /* Insertion into the few best candidates found so far. */
+                int c = found < CANDIDATES ? found++ : CANDIDATES;
+
+                while (c > 0 && score[c - 1] > value) {
+                    if (c < CANDIDATES) {
+                        score[c] = score[c - 1];
+                        candidate[c] = candidate[c - 1];
+                    }
+                    c--;
+                }
+
+                if (c < CANDIDATES) {
+                    score[c] = value;
+                    candidate[c] = i;
+                }
+            }
+
+            if (found == 0)
+                return false;
+
+            copy.assign(j, candidate[random.nextInt(found)]);
+        }
+
+        return true;
+    }
+
+    /* Replaces the incumbent when the solution of the copy beats it; copies the assignment only in that case. */
+    private void offer(AtomicReference<Incumbent> best, double cost, long start, ClusterState copy) {
+        Incumbent current = best.get();
+
+        if (current != null && !current.isBeatenBy(cost, start))
+            return;
+
+        Incumbent candidate = new Incumbent(cost, start, Arrays.copyOf(copy.podNode, copy.numPods));
+
+        while (!best.compareAndSet(current, candidate)) {
+            current = best.get();
+
+            if (current != null && !current.isBeatenBy(cost, start))
+                return;
+        }
+    }
+
+    private static double elapsed(long startTime) {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+}
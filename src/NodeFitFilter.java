@@ -0,0 +1,35 @@
+/*
+ * Finds the nodes a pod fits in, in every resource of the state. The scalar filter checks one node at a time; the
+ * vector one, VectorNodeFitFilter, compares as many nodes per instruction as the lanes of the preferred int vector of
+ * the machine. It needs the incubating jdk.incubator.vector module, so it lives in the vector source root, outside the
+ * src one of the IntelliJ module, and is loaded by name only when it was compiled and the module added at run time:
+ *
+ *     javac -cp gurobi.jar -sourcepath src -d out src/KubeSchedulerTime.java
+ *     javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorNodeFitFilter.java
+ *     java --add-modules jdk.incubator.vector -cp out ... KubeSchedulerTime vector=true
+ *
+ * Without it create falls back to the scalar filter. Both give the same answers.
+ */
+abstract class NodeFitFilter {
+    /* The vector filter when asked for and available, else the scalar one. */
+    public static NodeFitFilter create(boolean vector) {
+        if (vector) {
+            try {
+                return (NodeFitFilter) Class.forName("VectorNodeFitFilter").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.out.println("The vector fit filter is not available (" + e + "); using the scalar one");
+            }
+        }
+
+        return new ScalarNodeFitFilter();
+    }
+
+    /* Name for the output, e.g. "vector (8 lanes)". */
+    public abstract String getName();
+
+    /* First node at or after from that pod fits in, or -1. */
+    public abstract int firstFit(ClusterState state, int pod, int from);
+
+    /* Sets fits[i] for every node i, true when the pod fits in it; returns how many do. */
+    public abstract int filter(ClusterState state, int pod, boolean[] fits);
+}
@@ -0,0 +1,59 @@
+/* Outcome of a PlacementSolver run; the assignment itself is written to the ClusterState. */
+class PlacementResult {
+    /* The solve proved the relative gap between objective and lowerBound is within the requested MIP gap. */
+    static final int GAP_REACHED = 0;
+    static final int TIME_LIMIT = 1;
+    static final int INFEASIBLE = 2;
+    /* The search finished but gave up on parts of it before proving them, so the gap is only what getGap says. */
+    static final int GAP_NOT_PROVEN = 3;
+
+    /* Names of the statuses, as written to the result files. */
+    private static final String[] STATUS_NAMES = {"gap reached", "time limit", "infeasible", "gap not proven"};
+
+    private int status;
+    private double objective;
+    private double lowerBound;
+    private double runtime;
+
+    public PlacementResult(int status, double objective, double lowerBound, double runtime) {
+        this.status = status;
+        this.objective = objective;
+        this.lowerBound = lowerBound;
+        this.runtime = runtime;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusName() {
+        return statusName(status);
+    }
+
+    static String statusName(int status) {
+        return STATUS_NAMES[status];
+    }
+
+    public double getObjective() {
+        return objective;
+    }
+
+    /* Whether the solve ended with an assignment of every pod; without one the objective is infinite. */
+    public boolean hasSolution() {
+        return objective != Double.POSITIVE_INFINITY;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /* Relative gap between the objective and the lower bound, as Gurobi reports MIPGap. */
+    public double getGap() {
+        return objective == 0.0 ? 0.0 : Math.abs(objective - lowerBound) / Math.abs(objective);
+    }
+
+    /* Seconds spent in the solve. */
+    public double getRuntime() {
+        return runtime;
+    }
+}
@@ -0,0 +1,9 @@
+/*
+ * Solves the capacitated facility-location model of CustomMain for the nodes and pods of a ClusterState: open nodes
+ * at cost alpha, serve every pod at the allocation cost of its node (plus the weighted error penalization of the state),
+ * and keep the usage u of the pods of a node within its capacity U.
+ */
+interface PlacementSolver {
+    /* Assigns every pod of the state to a node of the best solution found. */
+    PlacementResult solve(ClusterState state);
+}
@@ -0,0 +1,45 @@
+import java.util.Arrays;
+
+/* Ids of the pods added and removed in one time slot, in the order the changes were made. */
+class PodChangeLog {
+    private int[] added = new int[16];
+    private int numAdded;
+
+    private int[] removed = new int[16];
+    private int numRemoved;
+
+    public void clear() {
+        numAdded = 0;
+        numRemoved = 0;
+    }
+
+    public void recordAdded(int id) {
+        if (numAdded == added.length)
+            added = Arrays.copyOf(added, added.length * 2);
+
+        added[numAdded++] = id;
+    }
+
+    public void recordRemoved(int id) {
+        if (numRemoved == removed.length)
+            removed = Arrays.copyOf(removed, removed.length * 2);
+
+        removed[numRemoved++] = id;
+    }
+
+    public int getAddedCount() {
+        return numAdded;
+    }
+
+    public int getAdded(int k) {
+        return added[k];
+    }
+
+    public int getRemovedCount() {
+        return numRemoved;
+    }
+
+    public int getRemoved(int k) {
+        return removed[k];
+    }
+}
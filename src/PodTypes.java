@@ -0,0 +1,61 @@
+import java.util.*;
+
+/*
+ * Pods that share resource usage and errors are interchangeable, so the solvers work with types and counts instead of
+ * single pods. Type k has count[k] pods of usage size[k] and errors errors[k], at positions pods[start[k]] ..
+ * pods[start[k + 1] - 1] of the state.
+ */
+class PodTypes {
+    int numTypes;
+    int[] size;
+    int[] errors;
+    int[] count;
+    int[] start;
+    int[] pods;
+
+    /* Total usage of the pods. */
+    long demand;
+
+    /* Assigns a type to every pod and groups the pod positions by type with a counting sort. */
+    public PodTypes(ClusterState state) {
+        Map<Long, Integer> types = new HashMap<>();
+        int[] podType = new int[state.numPods];
+
+        size = new int[16];
+        errors = new int[16];
+        count = new int[16];
+
+        for (int j = 0; j < state.numPods; j++) {
+            long key = ((long) state.podSize[j] << 32) | state.podErrors[j];
+            Integer type = types.get(key);
+
+            if (type == null) {
+                type = numTypes++;
+                types.put(key, type);
+
+                if (numTypes > size.length) {
+                    size = Arrays.copyOf(size, size.length * 2);
+                    errors = Arrays.copyOf(errors, errors.length * 2);
+                    count = Arrays.copyOf(count, count.length * 2);
+                }
+
+                size[type] = state.podSize[j];
+                errors[type] = state.podErrors[j];
+            }
+
+            podType[j] = type;
+            count[type]++;
+            demand += state.podSize[j];
+        }
+
+        start = new int[numTypes + 1];
+        for (int k = 0; k < numTypes; k++)
+            start[k + 1] = start[k] + count[k];
+
+        int[] next = Arrays.copyOf(start, numTypes);
+        pods = new int[state.numPods];
+
+        for (int j = 0; j < state.numPods; j++)
+            pods[next[podType[j]]++] = j;
+    }
+}
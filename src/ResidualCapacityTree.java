@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/* Max segment tree over the residual capacity of the nodes, indexed by the position of each node in the scheduler. */
+class ResidualCapacityTree {
+    private static final int EMPTY = -1;
+
+    private int size;
+    private int leaves;
+    private int[] tree;
+
+    public ResidualCapacityTree(int expectedNodes) {
+        this.leaves = 1;
+        while (leaves < Math.max(expectedNodes, 1))
+            leaves <<= 1;
+
+        this.tree = new int[2 * leaves];
+        this.size = 0;
+        Arrays.fill(tree, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Removes every node but keeps the allocated tree for reuse. */
+    public void clear() {
+        Arrays.fill(tree, EMPTY);
+        size = 0;
+    }
+
+    /* Appends a node at the next position, doubling the tree when it is full. */
+    public void add(int residual) {
+        if (size == leaves) {
+            int[] oldTree = tree;
+            int oldLeaves = leaves;
+
+            leaves <<= 1;
+            tree = new int[2 * leaves];
+            Arrays.fill(tree, EMPTY);
+            System.arraycopy(oldTree, oldLeaves, tree, leaves, oldLeaves);
+
+            for (int k = leaves - 1; k >= 1; k--)
+                tree[k] = Math.max(tree[2 * k], tree[2 * k + 1]);
+        }
+
+        update(size++, residual);
+    }
+
+    /* Drops the node at the last position. */
+    public void removeLast() {
+        update(--size, EMPTY);
+    }
+
+    public int get(int position) {
+        return tree[leaves + position];
+    }
+
+    public void update(int position, int residual) {
+        int k = leaves + position;
+        tree[k] = residual;
+
+        for (k >>= 1; k >= 1; k >>= 1)
+            tree[k] = Math.max(tree[2 * k], tree[2 * k + 1]);
+    }
+
+    /* Returns the leftmost position whose residual capacity is at least usage, or -1 when no node fits. */
+    public int firstFit(int usage) {
+        if (tree[1] < usage)
+            return -1;
+
+        int k = 1;
+        while (k < leaves)
+            k = tree[2 * k] >= usage ? 2 * k : 2 * k + 1;
+
+        return k - leaves;
+    }
+
+    /* Same as firstFit, restricted to positions from start onwards. */
+    public int firstFitFrom(int start, int usage) {
+        if (start <= 0)
+            return firstFit(usage);
+        if (start >= size)
+            return -1;
+
+        return firstFitFrom(1, 0, leaves - 1, start, usage);
+    }
+
+    private int firstFitFrom(int k, int low, int high, int start, int usage) {
+        if (high < start || tree[k] < usage)
+            return -1;
+        if (low == high)
+            return low;
+
+        int middle = (low + high) >>> 1;
+        int position = firstFitFrom(2 * k, low, middle, start, usage);
+
+        return position >= 0 ? position : firstFitFrom(2 * k + 1, middle + 1, high, start, usage);
+    }
+}
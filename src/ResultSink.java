@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Writes rows of typed values to a CSV file in the "a; b; c" style of the drivers, off the thread that produces them.
+ * Values are encoded straight into byte batches, without a String per row; full batches go through a bounded queue to
+ * a background thread that writes them with a FileChannel, and the producer blocks once every batch is in flight. The
+ * single writer keeps the rows in order, and close drains the queue, so the file is complete once close returns.
+ *
+ * With columnar output the rows also go to a binary file, in row groups of ROW_GROUP rows with the values of each column
+ * stored together (little-endian):
+ *
+ *     int magic 'FPCL', int version 1, int numColumns, per column: int nameLength, char[nameLength] name
+ *     per row group: int rows, per column: byte type ('L' long, 'D' double, 'S' string), int bytes, the values,
+ *                    where a string is an int length and its chars
+ *
+ * The CSV is ASCII, with '?' for other characters. The type of a column is set by its first value. A sink has one
+ * producer thread; write errors of the background thread are thrown by the next flush or by close.
+ */
+class ResultSink implements AutoCloseable {
+    private static final int BATCH_BYTES = 1 << 16;
+    private static final int BATCHES = 8;
+    private static final int ROW_GROUP = 4096;
+    private static final int COLUMNAR_MAGIC = 0x4650434c;
+
+    /* A buffer for the writer thread; a null channel tells it to stop. */
+    private static class Batch {
+        final FileChannel channel;
+        final ByteBuffer bytes;
+        final boolean pooled;
+
+        Batch(FileChannel channel, ByteBuffer bytes, boolean pooled) {
+            this.channel = channel;
+            this.bytes = bytes;
+            this.pooled = pooled;
+        }
+    }
+
+    private String[] columns;
+    private FileChannel csv;
+    private FileChannel columnar;
+
+    private BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(2 * BATCHES);
+    private BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BATCHES);
+    /* The batch being filled, encoded into its array directly; fill is the next free byte. */
+    private ByteBuffer batch;
+    private byte[] bytes;
+    private int fill;
+    private Thread writer;
+    private volatile IOException failure;
+
+    /* Position in the current row, and the digits or text of a double before they are copied into the batch. */
+    private int column;
+    private StringBuilder text = new StringBuilder(32);
+
+    /* Values of the current row group, per column, for the columnar file. */
+    private byte[] types;
+    private ByteBuffer[] columnValues;
+    private int groupRows;
+
+    /* Writes the header row to the CSV file; columnar is the binary file, or null for none. */
+    public ResultSink(Path file, Path columnarFile, String... columns) throws IOException {
+        this.columns = columns;
+        csv = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        for (int b = 0; b < BATCHES; b++)
+            free.add(ByteBuffer.allocate(BATCH_BYTES));
+
+        batch = free.poll();
+        bytes = batch.array();
+
+        if (columnarFile != null) {
+            columnar = FileChannel.open(columnarFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            types = new byte[columns.length];
+            columnValues = new ByteBuffer[columns.length];
+
+            int headerBytes = 12;
+            for (String name : columns)
+                headerBytes += 4 + 2 * name.length();
+
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(COLUMNAR_MAGIC).putInt(1).putInt(columns.length);
+
+            for (String name : columns) {
+                header.putInt(name.length());
+                for (int k = 0; k < name.length(); k++)
+                    header.putChar(name.charAt(k));
+            }
+
+            header.flip();
+            enqueue(new Batch(columnar, header, false));
+        }
+
+        writer = new Thread(this::drain, "result-sink " + file.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+
+        for (int c = 0; c < columns.length; c++) {
+            if (c > 0)
+                putAscii("; ");
+            putAscii(columns[c]);
+        }
+
+        putAscii(" \n");
+    }
+
+    public ResultSink add(long value) {
+        separator();
+
+        if (value < 0) {
+            /* Negative values are rare in the results; StringBuilder handles the sign and Long.MIN_VALUE. */
+            text.setLength(0);
+            text.append(value);
+            putAscii(text);
+        } else {
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10)
+                digits++;
+
+            /* Digits are written from the last one backwards, so no string or digit array is needed. */
+            ensure(digits);
+            long rest = value;
+
+            for (int p = fill + digits - 1; p >= fill; p--) {
+                bytes[p] = (byte) ('0' + rest % 10);
+                rest /= 10;
+            }
+
+            fill += digits;
+        }
+
+        if (columnar != null)
+            next('L', 8).putLong(value);
+
+        column++;
+        return this;
+    }
+
+    public ResultSink add(double value) {
+        separator();
+
+        /* StringBuilder formats a double into its own buffer, the same digits string concatenation gives. */
+        text.setLength(0);
+        text.append(value);
+        putAscii(text);
+
+        if (columnar != null)
+            next('D', 8).putDouble(value);
+
+        column++;
+        return this;
+    }
+
+    public ResultSink add(CharSequence value) {
+        separator();
+        putAscii(value);
+
+        if (columnar != null) {
+            ByteBuffer values = next('S', 4 + 2 * value.length());
+            values.putInt(value.length());
+
+            for (int k = 0; k < value.length(); k++)
+                values.putChar(value.charAt(k));
+        }
+
+        column++;
+        return this;
+    }
+
+    public void endRow() {
+        if (column != columns.length)
+            throw new IllegalStateException("Row has " + column + " values for " + columns.length + " columns");
+
+        ensure(1);
+        bytes[fill++] = '\n';
+        column = 0;
+
+        if (columnar != null && ++groupRows == ROW_GROUP)
+            writeRowGroup();
+    }
+
+    /* Hands the rows so far to the writer thread, without waiting for them to be written. */
+    public void flush() throws IOException {
+        if (fill > 0)
+            submit();
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /* Writes every row, stops the writer thread and closes the files. */
+    public void close() throws IOException {
+        if (fill > 0)
+            submit();
+
+        if (columnar != null && groupRows > 0)
+            writeRowGroup();
+
+        enqueue(new Batch(null, null, false));
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the result sink", e);
+        } finally {
+            csv.close();
+            if (columnar != null)
+                columnar.close();
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    private void separator() {
+        if (column >= columns.length)
+            throw new IllegalStateException("Row has more values than the " + columns.length + " columns");
+
+        if (column > 0)
+            putAscii("; ");
+    }
+
+    private void putAscii(CharSequence value) {
+        int length = value.length();
+        int written = 0;
+
+        /* Long text is copied a batch at a time. */
+        while (written < length) {
+            ensure(1);
+            int chunk = Math.min(length - written, bytes.length - fill);
+
+            for (int k = 0; k < chunk; k++) {
+                char c = value.charAt(written + k);
+                bytes[fill++] = (byte) (c < 128 ? c : '?');
+            }
+
+            written += chunk;
+        }
+    }
+
+    private void ensure(int count) {
+        if (bytes.length - fill < count)
+            submit();
+    }
+
+    private void submit() {
+        batch.limit(fill);
+        enqueue(new Batch(csv, batch, true));
+
+        try {
+            batch = free.take();
+            bytes = batch.array();
+            fill = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the result sink", e);
+        }
+    }
+
+    private void enqueue(Batch item) {
+        try {
+            pending.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the result sink", e);
+        }
+    }
+
+    /* The buffer of the current column of the row group, with room for bytes more; checks the type of the column. */
+    private ByteBuffer next(char type, int bytes) {
+        if (types[column] == 0)
+            types[column] = (byte) type;
+        else if (types[column] != type)
+            throw new IllegalStateException("Column " + columns[column] + " holds '" + (char) types[column] + "' values, not '" + type + "'");
+
+        ByteBuffer values = columnValues[column];
+
+        if (values == null || values.remaining() < bytes) {
+            int capacity = Math.max(values == null ? 8 * ROW_GROUP : 2 * values.capacity(), (values == null ? 0 : values.position()) + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (values != null)
+                grown.put(values.flip());
+
+            columnValues[column] = values = grown;
+        }
+
+        return values;
+    }
+
+    private void writeRowGroup() {
+        int bytes = 4;
+        for (ByteBuffer values : columnValues)
+            bytes += 5 + (values == null ? 0 : values.position());
+
+        ByteBuffer group = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        group.putInt(groupRows);
+
+        for (int c = 0; c < columns.length; c++) {
+            ByteBuffer values = columnValues[c];
+            group.put(types[c]).putInt(values == null ? 0 : values.position());
+
+            if (values != null) {
+                group.put(values.flip());
+                values.clear();
+            }
+        }
+
+        group.flip();
+        enqueue(new Batch(columnar, group, false));
+        groupRows = 0;
+    }
+
+    /* Body of the writer thread: writes the batches in queue order and returns the pooled ones. */
+    private void drain() {
+        while (true) {
+            Batch item;
+
+            try {
+                item = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (item.channel == null)
+                return;
+
+            if (failure == null) {
+                try {
+                    while (item.bytes.hasRemaining())
+                        item.channel.write(item.bytes);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+
+            if (item.pooled) {
+                item.bytes.clear();
+                free.add(item.bytes);
+            }
+        }
+    }
+}
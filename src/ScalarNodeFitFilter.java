@@ -0,0 +1,43 @@
+/* NodeFitFilter in plain loops, for JVMs without the Vector API; firstFit stops at the first node that fits. */
+class ScalarNodeFitFilter extends NodeFitFilter {
+    public String getName() {
+        return "scalar";
+    }
+
+    public int firstFit(ClusterState state, int pod, int from) {
+        for (int i = from; i < state.numNodes; i++) {
+            if (state.fits(pod, i))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /* Resource by resource over all nodes, so each pass reads the arrays in order. */
+    public int filter(ClusterState state, int pod, boolean[] fits) {
+        int numNodes = state.numNodes;
+
+        for (int r = 0; r < state.numResources; r++) {
+            int[] capacity = state.nodeResourceCapacity[r];
+            int[] used = state.nodeResourceUsed[r];
+            int usage = state.podResource[r][pod];
+
+            if (r == 0) {
+                for (int i = 0; i < numNodes; i++)
+                    fits[i] = used[i] + usage <= capacity[i];
+            } else {
+                for (int i = 0; i < numNodes; i++)
+                    fits[i] &= used[i] + usage <= capacity[i];
+            }
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (fits[i])
+                count++;
+        }
+
+        return count;
+    }
+}
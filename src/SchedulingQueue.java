@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Pending pods of a ClusterState, kept the way the scheduling queue of kube-scheduler keeps them:
+ *  - activeQ: pods ready to be tried, highest priority first and, among equal priorities, in enqueue order;
+ *  - backoffQ: failed pods whose backoff has not expired yet, soonest expiry first; pop moves the expired ones to activeQ;
+ *  - unschedulable: failed pods waiting for an event that may make them fit. moveAllToActiveOrBackoff, called when
+ *    capacity is freed, sends each to backoffQ while its backoff runs and to activeQ after.
+ * The backoff of a pod is initialBackoff * 2^(attempts - 1), capped at maxBackoff.
+ *
+ * Pods are positions in the state, as in the schedulers, and both queues are binary heaps over int arrays with the heap
+ * position of every pod kept, so removing a pod or following it to a new position (ClusterState.removePod moves the
+ * last pod) is O(log n) without objects per pod. Times are nanoseconds of the caller's clock. The time from the first
+ * enqueue of a pod to its bind is recorded in one histogram for all pods and one per priority.
+ */
+class SchedulingQueue {
+    private static final byte NONE = 0;
+    private static final byte ACTIVE = 1;
+    private static final byte BACKOFF = 2;
+    private static final byte UNSCHEDULABLE = 3;
+
+    private long initialBackoff;
+    private long maxBackoff;
+
+    /* Per pod position: where the pod is, its index in that heap or list, and what orders it there. */
+    private byte[] where = new byte[16];
+    private int[] slot = new int[16];
+    private int[] priority = new int[16];
+    private long[] sequence = new long[16];
+    private long[] enqueued = new long[16];
+    private long[] backoffExpiry = new long[16];
+    private int[] attempts = new int[16];
+    private long nextSequence;
+
+    private int[] active = new int[16];
+    private int activeSize;
+    private int[] backoff = new int[16];
+    private int backoffSize;
+    private int[] unschedulable = new int[16];
+    private int unschedulableSize;
+
+    private LatencyHistogram latency = new LatencyHistogram("enqueue to bind");
+    private LatencyHistogram[] latencyByPriority = new LatencyHistogram[0];
+
+    /* Backoffs in nanoseconds. */
+    public SchedulingQueue(long initialBackoff, long maxBackoff) {
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /* Enqueues pod j, not yet in the queue, as ready to be tried; priority is zero or more, higher first. */
+    public void add(int j, int podPriority, long now) {
+        if (podPriority < 0)
+            throw new IllegalArgumentException("Pod priorities are zero or more, not " + podPriority);
+
+        ensure(j + 1);
+        priority[j] = podPriority;
+        enqueued[j] = now;
+        attempts[j] = 0;
+        sequence[j] = nextSequence++;
+        push(j, ACTIVE);
+    }
+
+    /* Takes the next pod to try, after moving the pods whose backoff expired to activeQ; -1 when none is ready. */
+    public int pop(long now) {
+        while (backoffSize > 0 && backoffExpiry[backoff[0]] <= now) {
+            int j = backoff[0];
+            removeAt(BACKOFF, 0);
+            push(j, ACTIVE);
+        }
+
+        if (activeSize == 0)
+            return -1;
+
+        int j = active[0];
+        removeAt(ACTIVE, 0);
+        attempts[j]++;
+
+        return j;
+    }
+
+    /* Pod j, taken by pop, was bound to a node. */
+    public void bound(int j, long now) {
+        long nanos = now - enqueued[j];
+        latency.record(nanos);
+
+        if (priority[j] >= latencyByPriority.length) {
+            int length = latencyByPriority.length;
+            latencyByPriority = Arrays.copyOf(latencyByPriority, priority[j] + 1);
+
+            for (int p = length; p < latencyByPriority.length; p++)
+                latencyByPriority[p] = new LatencyHistogram("enqueue to bind (priority " + p + ")");
+        }
+
+        latencyByPriority[priority[j]].record(nanos);
+    }
+
+    /* Pod j, taken by pop, fits no node; it waits for moveAllToActiveOrBackoff and then for its backoff. */
+    public void unschedulable(int j, long now) {
+        int shift = Math.min(attempts[j] - 1, 62);
+        long wait = initialBackoff > maxBackoff >>> shift ? maxBackoff : Math.min(initialBackoff << shift, maxBackoff);
+
+        backoffExpiry[j] = now + wait;
+        sequence[j] = nextSequence++;
+
+        if (unschedulableSize == unschedulable.length)
+            unschedulable = Arrays.copyOf(unschedulable, unschedulable.length * 2);
+
+        where[j] = UNSCHEDULABLE;
+        slot[j] = unschedulableSize;
+        unschedulable[unschedulableSize++] = j;
+    }
+
+    /* Capacity was freed: every unschedulable pod goes back to backoffQ or, once its backoff expired, to activeQ. */
+    public void moveAllToActiveOrBackoff(long now) {
+        for (int k = 0; k < unschedulableSize; k++) {
+            int j = unschedulable[k];
+            push(j, backoffExpiry[j] > now ? BACKOFF : ACTIVE);
+        }
+
+        unschedulableSize = 0;
+    }
+
+    /* Drops pod j, e.g. because it was deleted; nothing happens when it is not queued. */
+    public void remove(int j) {
+        if (j >= where.length)
+            return;
+
+        if (where[j] == UNSCHEDULABLE) {
+            int last = unschedulable[--unschedulableSize];
+            unschedulable[slot[j]] = last;
+            slot[last] = slot[j];
+            where[j] = NONE;
+        } else if (where[j] != NONE) {
+            removeAt(where[j], slot[j]);
+        }
+    }
+
+    /* The pod at position from moved to position to, whose own pod was removed before; see ClusterState.removePod. */
+    public void moved(int from, int to) {
+        ensure(Math.max(from, to) + 1);
+
+        where[to] = where[from];
+        slot[to] = slot[from];
+        priority[to] = priority[from];
+        sequence[to] = sequence[from];
+        enqueued[to] = enqueued[from];
+        backoffExpiry[to] = backoffExpiry[from];
+        attempts[to] = attempts[from];
+        where[from] = NONE;
+
+        if (where[to] == ACTIVE)
+            active[slot[to]] = to;
+        else if (where[to] == BACKOFF)
+            backoff[slot[to]] = to;
+        else if (where[to] == UNSCHEDULABLE)
+            unschedulable[slot[to]] = to;
+    }
+
+    /* Empties the queue; the latency histograms are kept. */
+    public void clear() {
+        for (int k = 0; k < activeSize; k++)
+            where[active[k]] = NONE;
+        for (int k = 0; k < backoffSize; k++)
+            where[backoff[k]] = NONE;
+        for (int k = 0; k < unschedulableSize; k++)
+            where[unschedulable[k]] = NONE;
+
+        activeSize = 0;
+        backoffSize = 0;
+        unschedulableSize = 0;
+    }
+
+    public int getActiveCount() {
+        return activeSize;
+    }
+
+    public int getBackoffCount() {
+        return backoffSize;
+    }
+
+    public int getUnschedulableCount() {
+        return unschedulableSize;
+    }
+
+    public int getPendingCount() {
+        return activeSize + backoffSize + unschedulableSize;
+    }
+
+    /* When the first backoff in backoffQ expires, or Long.MAX_VALUE when it is empty; a caller driving its own clock tries again then. */
+    public long nextBackoffExpiry() {
+        return backoffSize == 0 ? Long.MAX_VALUE : backoffExpiry[backoff[0]];
+    }
+
+    /* The histogram over every pod, then one per priority seen. */
+    public List<LatencyHistogram> getLatencies() {
+        List<LatencyHistogram> latencies = new ArrayList<>();
+        latencies.add(latency);
+
+        for (LatencyHistogram histogram : latencyByPriority) {
+            if (histogram.getCount() > 0)
+                latencies.add(histogram);
+        }
+
+        return latencies;
+    }
+
+    private void ensure(int pods) {
+        if (pods > where.length) {
+            int length = Math.max(pods, where.length * 2);
+            where = Arrays.copyOf(where, length);
+            slot = Arrays.copyOf(slot, length);
+            priority = Arrays.copyOf(priority, length);
+            sequence = Arrays.copyOf(sequence, length);
+            enqueued = Arrays.copyOf(enqueued, length);
+            backoffExpiry = Arrays.copyOf(backoffExpiry, length);
+            attempts = Arrays.copyOf(attempts, length);
+        }
+    }
+
+    /* Whether pod a comes out of the heap before pod b. */
+    private boolean before(byte heap, int a, int b) {
+        if (heap == ACTIVE && priority[a] != priority[b])
+            return priority[a] > priority[b];
+
+        if (heap == BACKOFF && backoffExpiry[a] != backoffExpiry[b])
+            return backoffExpiry[a] < backoffExpiry[b];
+
+        return sequence[a] < sequence[b];
+    }
+
+    private void push(int j, byte heap) {
+        if (heap == ACTIVE) {
+            if (activeSize == active.length)
+                active = Arrays.copyOf(active, active.length * 2);
+
+            active[activeSize] = j;
+            slot[j] = activeSize++;
+        } else {
+            if (backoffSize == backoff.length)
+                backoff = Arrays.copyOf(backoff, backoff.length * 2);
+
+            backoff[backoffSize] = j;
+            slot[j] = backoffSize++;
+        }
+
+        where[j] = heap;
+        siftUp(heap, slot[j]);
+    }
+
+    /* Removes the pod at index k of the heap, moving the last pod of the heap into its place. */
+    private void removeAt(byte heap, int k) {
+        int[] pods = heap == ACTIVE ? active : backoff;
+        int size = heap == ACTIVE ? --activeSize : --backoffSize;
+
+        where[pods[k]] = NONE;
+
+        if (k == size)
+            return;
+
+        int last = pods[size];
+        pods[k] = last;
+        slot[last] = k;
+
+        siftDown(heap, k);
+        siftUp(heap, slot[last]);
+    }
+
+    private void siftUp(byte heap, int k) {
+        int[] pods = heap == ACTIVE ? active : backoff;
+        int j = pods[k];
+
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+
+            if (!before(heap, j, pods[parent]))
+                break;
+
+            pods[k] = pods[parent];
+            slot[pods[k]] = k;
+            k = parent;
+        }
+
+        pods[k] = j;
+        slot[j] = k;
+    }
+
+    private void siftDown(byte heap, int k) {
+        int[] pods = heap == ACTIVE ? active : backoff;
+        int size = heap == ACTIVE ? activeSize : backoffSize;
+        int j = pods[k];
+
+        while (true) {
+            int child = 2 * k + 1;
+
+            if (child >= size)
+                break;
+
+            if (child + 1 < size && before(heap, pods[child + 1], pods[child]))
+                child++;
+
+            if (!before(heap, pods[child], j))
+                break;
+
+            pods[k] = pods[child];
+            slot[pods[k]] = k;
+            k = child;
+        }
+
+        pods[k] = j;
+        slot[j] = k;
+    }
+}
@@ -0,0 +1,524 @@
+import gurobi.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * The pod-level model with columns only where they can matter: instead of a y_ij for every node and pod, pod j starts
+ * with the candidates best nodes by marginal cost, its allocation cost plus the opening cost of the node spread over
+ * its capacity, and the node the repaired Lagrangian solution gives it, so the first restricted model is feasible.
+ * Missing columns are then added on demand:
+ *
+ *   - pricing: the LP relaxation of the restricted model is solved and every missing y_ij with a negative reduced cost
+ *     c_ij - pi_j - u_j * mu_i is a candidate, with pi_j the dual of AtendimentoPod_j and mu_i that of CapacidadeNo_i;
+ *     the cheapest one per pod is added and the LP solved again until none is left (or PRICING_ROUNDS is reached),
+ *   - reduced costs after the MIP: a solution cheaper than the incumbent can only use a missing column whose reduced
+ *     cost is below incumbent - LP bound, so those columns are added and the MIP solved again; once there are none,
+ *     the bound of the restricted MIP is a bound of the full model,
+ *   - infeasibility: a restricted MIP proven infeasible gets the next candidates ranks of every pod.
+ *
+ * The lower bound reported is the best of the Lagrangian bound, the LP bound of the restricted model corrected by the
+ * negative reduced costs left, and the MIP bound once no missing column can improve on the incumbent, so the gap is a
+ * gap to the full model.
+ */
+class SparseFormulation implements PlacementSolver {
+    private static final int PRICING_ROUNDS = 50;
+    private static final int MIP_ROUNDS = 10;
+    private static final double TOLERANCE = 1e-6;
+
+    private double mipGap;
+    private double timeLimit;
+    private int candidates;
+
+    private LagrangianBound lagrangianBound = new LagrangianBound(200, false);
+
+    private ClusterState state;
+    private GRBEnv env;
+    private GRBModel model;
+    private GRBVar[] x;
+    private GRBConstr[] capacidade;
+    private GRBConstr[] atendimento;
+
+    /* Columns of pod j: nodes columnNode[j][0 .. columnCount[j] - 1] and their variables. present marks node i of pod j. */
+    private int[][] columnNode;
+    private GRBVar[][] columnVar;
+    private int[] columnCount;
+    private int numColumns;
+    private long[] present;
+
+    /* Nodes by marginal cost for each pod type, and how many ranks of that order every pod has been given. */
+    private PodTypes types;
+    private int[] podType;
+    private int[][] nodesByMarginalCost;
+    private int depth;
+
+    /* Duals of the last LP relaxation, its value and the sum of the negative reduced costs of the missing columns. */
+    private double[] pi;
+    private double[] mu;
+    private double lpValue;
+    private double lpCorrection;
+
+    /* Linking rows y_ij <= x_i of the columns added since the last flushLinking. */
+    private GRBLinExpr[] linking = new GRBLinExpr[1024];
+    private int pendingLinks;
+
+    /* timeLimit is in seconds; candidates is the number of nodes every pod starts with. */
+    public SparseFormulation(double mipGap, double timeLimit, int candidates) {
+        this.mipGap = mipGap;
+        this.timeLimit = timeLimit;
+        this.candidates = candidates;
+    }
+
+    public PlacementResult solve(ClusterState state) {
+        long startTime = System.nanoTime();
+
+        try {
+            return solve(state, startTime);
+        } catch (GRBException e) {
+            throw new IllegalStateException("Error code: " + e.getErrorCode() + ". " + e.getMessage(), e);
+        } finally {
+            try {
+                if (model != null)
+                    model.dispose();
+                if (env != null)
+                    env.dispose();
+            } catch (GRBException e) {
+                System.out.println("Error code: " + e.getErrorCode() + ". " + e.getMessage());
+            }
+
+            model = null;
+            env = null;
+        }
+    }
+
+    /* Columns of the restricted model after the last solve. */
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    private PlacementResult solve(ClusterState state, long startTime) throws GRBException {
+        this.state = state;
+
+        int numNodes = state.numNodes;
+        int numPods = state.numPods;
+
+        double lagrangian = lagrangianBound.compute(state, Double.POSITIVE_INFINITY);
+
+        if (lagrangian == Double.POSITIVE_INFINITY)
+            return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, seconds(startTime));
+
+        /* The repaired solution is the first incumbent, and its nodes are columns of the first restricted model. */
+        lagrangianBound.assignRepaired(state);
+
+        env = new GRBEnv();
+        model = new GRBModel(env);
+        model.set(GRB.StringAttr.ModelName, "nodePodsAllocationSparse");
+        model.set(GRB.DoubleParam.MIPGap, mipGap);
+        model.set(GRB.IntAttr.ModelSense, GRB.MINIMIZE);
+
+        char[] binaryNodes = new char[numNodes];
+        Arrays.fill(binaryNodes, GRB.BINARY);
+
+        x = model.addVars(null, null, Arrays.copyOf(state.nodeOpeningCost, numNodes), binaryNodes, null);
+
+        GRBLinExpr somatorio = new GRBLinExpr();
+        double[] ones = new double[numNodes];
+        Arrays.fill(ones, 1.0);
+        somatorio.addTerms(ones, x, 0, numNodes);
+        model.addConstr(somatorio, GRB.GREATER_EQUAL, 1, "MinimoNodes");
+
+        /* Capacity rows start with -U_i x_i and assignment rows empty; the columns add their y to both. */
+        GRBLinExpr[] capacityRows = new GRBLinExpr[numNodes];
+        char[] lessEqual = new char[numNodes];
+        Arrays.fill(lessEqual, GRB.LESS_EQUAL);
+
+        for (int i = 0; i < numNodes; i++) {
+            capacityRows[i] = new GRBLinExpr();
+            capacityRows[i].addTerm(-state.nodeCapacity[i], x[i]);
+        }
+
+        capacidade = model.addConstrs(capacityRows, lessEqual, new double[numNodes], null);
+
+        GRBLinExpr[] assignmentRows = new GRBLinExpr[numPods];
+        char[] equal = new char[numPods];
+        double[] rhs = new double[numPods];
+        Arrays.fill(equal, GRB.EQUAL);
+        Arrays.fill(rhs, 1.0);
+
+        for (int j = 0; j < numPods; j++)
+            assignmentRows[j] = new GRBLinExpr();
+
+        atendimento = model.addConstrs(assignmentRows, equal, rhs, null);
+
+        rankNodes();
+
+        columnNode = new int[numPods][];
+        columnVar = new GRBVar[numPods][];
+        columnCount = new int[numPods];
+        numColumns = 0;
+        present = new long[(int) (((long) numNodes * numPods + 63) / 64)];
+        depth = 0;
+
+        for (int j = 0; j < numPods; j++) {
+            columnNode[j] = new int[candidates + 1];
+            columnVar[j] = new GRBVar[candidates + 1];
+            addColumn(state.podNode[j], j);
+        }
+
+        widen();
+
+        pi = null;
+        lpValue = Double.NEGATIVE_INFINITY;
+        lpCorrection = 0.0;
+
+        int pricingRounds = price(startTime);
+
+        double bestBound = Math.max(lagrangian, lpValue + lpCorrection);
+        boolean restrictedBoundValid = false;
+        boolean infeasible = false;
+
+        for (int round = 0; round < MIP_ROUNDS && remaining(startTime) > 0; round++) {
+            setStart();
+            model.set(GRB.DoubleParam.TimeLimit, remaining(startTime));
+            model.optimize();
+
+            if (model.get(GRB.IntAttr.SolCount) == 0) {
+                /* The restricted model lacks the columns of every solution; more ranks may give one. */
+                int mipStatus = model.get(GRB.IntAttr.Status);
+
+                if (mipStatus != GRB.Status.INFEASIBLE && mipStatus != GRB.Status.INF_OR_UNBD)
+                    break;
+
+                /* With every column present the restricted model is the full one. */
+                if (!widen()) {
+                    infeasible = true;
+                    break;
+                }
+
+                continue;
+            }
+
+            readAssignment();
+
+            /* Without the duals of an LP relaxation there are no reduced costs to look for missing columns with. */
+            if (pi == null)
+                break;
+
+            double objective = state.totalCost();
+            double threshold = objective - (lpValue + lpCorrection);
+            int added = addImproving(threshold);
+
+            if (added == 0) {
+                restrictedBoundValid = true;
+                bestBound = Math.max(bestBound, Math.min(model.get(GRB.DoubleAttr.ObjBound), objective));
+                break;
+            }
+
+            if (gap(objective, bestBound) <= mipGap)
+                break;
+
+            System.out.println("Sparse MIP round " + round + ": " + added + " columns below the reduced-cost threshold " + threshold);
+            pricingRounds += price(startTime);
+            bestBound = Math.max(bestBound, lpValue + lpCorrection);
+        }
+
+        System.out.println("Sparse columns: " + numColumns + " of " + (long) numNodes * numPods + " after " + pricingRounds
+                + " pricing rounds" + (restrictedBoundValid ? "" : ", restricted bound not proven for the full model"));
+
+        /* Neither the repair nor a restricted model gave a solution, so the state holds at most part of one. */
+        if (state.assignedPods() != numPods) {
+            state.clearAssignment();
+
+            if (infeasible)
+                return new PlacementResult(PlacementResult.INFEASIBLE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, seconds(startTime));
+
+            return new PlacementResult(PlacementResult.TIME_LIMIT, Double.POSITIVE_INFINITY, bestBound, seconds(startTime));
+        }
+
+        double objective = state.totalCost();
+        int status;
+
+        if (gap(objective, bestBound) <= mipGap)
+            status = PlacementResult.GAP_REACHED;
+        else if (remaining(startTime) <= 0)
+            status = PlacementResult.TIME_LIMIT;
+        else
+            status = PlacementResult.GAP_NOT_PROVEN;
+
+        return new PlacementResult(status, objective, Math.min(bestBound, objective), seconds(startTime));
+    }
+
+    /* Orders the nodes that can hold each pod type by marginal cost. */
+    private void rankNodes() {
+        types = new PodTypes(state);
+        podType = new int[state.numPods];
+        nodesByMarginalCost = new int[types.numTypes][];
+
+        for (int k = 0; k < types.numTypes; k++) {
+            for (int p = types.start[k]; p < types.start[k + 1]; p++)
+                podType[types.pods[p]] = k;
+
+            int size = types.size[k];
+            int errors = types.errors[k];
+            double[] marginal = new double[state.numNodes];
+            int fitting = 0;
+
+            for (int i = 0; i < state.numNodes; i++) {
+                if (state.nodeCapacity[i] >= size) {
+                    marginal[i] = state.nodeAllocationCost[i] + state.errorWeight * state.nodePenalization[i] * errors
+                            + state.nodeOpeningCost[i] * size / state.nodeCapacity[i];
+                    fitting++;
+                }
+            }
+
+            Integer[] nodes = new Integer[fitting];
+            fitting = 0;
+
+            for (int i = 0; i < state.numNodes; i++) {
+                if (state.nodeCapacity[i] >= size)
+                    nodes[fitting++] = i;
+            }
+
+            Arrays.sort(nodes, Comparator.comparingDouble((Integer i) -> marginal[i]));
+
+            nodesByMarginalCost[k] = new int[fitting];
+            for (int r = 0; r < fitting; r++)
+                nodesByMarginalCost[k][r] = nodes[r];
+        }
+    }
+
+    /* Gives every pod the next candidates ranks of its order; false when every pod already has all of them. */
+    private boolean widen() throws GRBException {
+        int before = numColumns;
+        boolean exhausted = true;
+        int next = depth + candidates;
+
+        for (int j = 0; j < state.numPods; j++) {
+            int[] order = nodesByMarginalCost[podType[j]];
+
+            for (int r = depth; r < Math.min(next, order.length); r++)
+                addColumn(order[r], j);
+
+            if (next < order.length)
+                exhausted = false;
+        }
+
+        depth = next;
+        flushLinking();
+
+        return numColumns > before || !exhausted;
+    }
+
+    /*
+     * Solves LP relaxations of the restricted model, adding the missing column of most negative reduced cost of every
+     * pod, until there is none or PRICING_ROUNDS is reached. Returns the rounds run.
+     */
+    private int price(long startTime) throws GRBException {
+        int rounds = 0;
+
+        while (rounds < PRICING_ROUNDS && remaining(startTime) > 0) {
+            rounds++;
+            model.update();
+
+            GRBModel relaxed = model.relax();
+
+            try {
+                relaxed.set(GRB.IntParam.OutputFlag, 0);
+                relaxed.set(GRB.DoubleParam.TimeLimit, remaining(startTime));
+                relaxed.optimize();
+
+                if (relaxed.get(GRB.IntAttr.Status) != GRB.Status.OPTIMAL)
+                    return rounds;
+
+                /* Rows are in the order they were added: MinimoNodes, the capacity rows, then the assignment rows. */
+                double[] duals = relaxed.get(GRB.DoubleAttr.Pi, relaxed.getConstrs());
+
+                mu = Arrays.copyOfRange(duals, 1, 1 + state.numNodes);
+                pi = Arrays.copyOfRange(duals, 1 + state.numNodes, 1 + state.numNodes + state.numPods);
+                lpValue = relaxed.get(GRB.DoubleAttr.ObjVal);
+            } finally {
+                relaxed.dispose();
+            }
+
+            int added = 0;
+            lpCorrection = 0.0;
+
+            for (int j = 0; j < state.numPods; j++) {
+                int best = -1;
+                double bestReducedCost = -TOLERANCE;
+
+                for (int i = 0; i < state.numNodes; i++) {
+                    if (isPresent(i, j) || state.podSize[j] > state.nodeCapacity[i])
+                        continue;
+
+                    double reducedCost = reducedCost(i, j);
+
+                    if (reducedCost < 0)
+                        lpCorrection += reducedCost;
+
+                    if (reducedCost < bestReducedCost) {
+                        bestReducedCost = reducedCost;
+                        best = i;
+                    }
+                }
+
+                if (best >= 0) {
+                    addColumn(best, j);
+                    added++;
+                }
+            }
+
+            flushLinking();
+
+            if (added == 0)
+                break;
+        }
+
+        return rounds;
+    }
+
+    /* Adds, per pod, up to candidates missing columns with reduced cost below threshold, cheapest first. */
+    private int addImproving(double threshold) throws GRBException {
+        int added = 0;
+        int[] nodes = new int[state.numNodes];
+        double[] reducedCosts = new double[state.numNodes];
+
+        for (int j = 0; j < state.numPods; j++) {
+            int count = 0;
+
+            for (int i = 0; i < state.numNodes; i++) {
+                if (isPresent(i, j) || state.podSize[j] > state.nodeCapacity[i])
+                    continue;
+
+                double reducedCost = reducedCost(i, j);
+
+                if (reducedCost < threshold - TOLERANCE) {
+                    nodes[count] = i;
+                    reducedCosts[count++] = reducedCost;
+                }
+            }
+
+            /* Few columns pass the threshold, so a selection of the candidates cheapest is enough. */
+            for (int c = 0; c < Math.min(count, candidates); c++) {
+                int cheapest = c;
+
+                for (int d = c + 1; d < count; d++) {
+                    if (reducedCosts[d] < reducedCosts[cheapest])
+                        cheapest = d;
+                }
+
+                int node = nodes[cheapest];
+                nodes[cheapest] = nodes[c];
+                reducedCosts[cheapest] = reducedCosts[c];
+
+                addColumn(node, j);
+                added++;
+            }
+        }
+
+        flushLinking();
+        return added;
+    }
+
+    private double reducedCost(int i, int j) {
+        return state.allocationCost(i, j) - pi[j] - state.podSize[j] * mu[i];
+    }
+
+    private boolean isPresent(int i, int j) {
+        long bit = (long) j * state.numNodes + i;
+        return (present[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /* Adds y_ij to the assignment row of j and the capacity row of i; its linking row is added by flushLinking. */
+    private void addColumn(int i, int j) throws GRBException {
+        if (i < 0 || isPresent(i, j))
+            return;
+
+        long bit = (long) j * state.numNodes + i;
+        present[(int) (bit >>> 6)] |= 1L << bit;
+
+        GRBColumn column = new GRBColumn();
+        column.addTerm(1.0, atendimento[j]);
+        column.addTerm(state.podSize[j], capacidade[i]);
+
+        GRBVar y = model.addVar(0.0, 1.0, state.allocationCost(i, j), GRB.BINARY, column, null);
+
+        if (columnCount[j] == columnNode[j].length) {
+            columnNode[j] = Arrays.copyOf(columnNode[j], 2 * columnCount[j]);
+            columnVar[j] = Arrays.copyOf(columnVar[j], 2 * columnCount[j]);
+        }
+
+        columnNode[j][columnCount[j]] = i;
+        columnVar[j][columnCount[j]++] = y;
+        numColumns++;
+
+        if (pendingLinks == linking.length)
+            linking = Arrays.copyOf(linking, 2 * pendingLinks);
+
+        GRBLinExpr link = new GRBLinExpr();
+        link.addTerm(1.0, y);
+        link.addTerm(-1.0, x[i]);
+        linking[pendingLinks++] = link;
+    }
+
+    private void flushLinking() throws GRBException {
+        if (pendingLinks == 0)
+            return;
+
+        char[] senses = new char[pendingLinks];
+        Arrays.fill(senses, GRB.LESS_EQUAL);
+
+        model.addConstrs(Arrays.copyOf(linking, pendingLinks), senses, new double[pendingLinks], null);
+
+        Arrays.fill(linking, 0, pendingLinks, null);
+        pendingLinks = 0;
+    }
+
+    /* Starts the MIP from the assignment of the state, the incumbent so far. */
+    private void setStart() throws GRBException {
+        double[] open = new double[state.numNodes];
+
+        for (int j = 0; j < state.numPods; j++) {
+            int node = state.podNode[j];
+
+            if (node >= 0)
+                open[node] = 1.0;
+
+            double[] values = new double[columnCount[j]];
+
+            for (int c = 0; c < columnCount[j]; c++)
+                values[c] = columnNode[j][c] == node ? 1.0 : 0.0;
+
+            model.set(GRB.DoubleAttr.Start, Arrays.copyOf(columnVar[j], columnCount[j]), values);
+        }
+
+        model.set(GRB.DoubleAttr.Start, x, open);
+    }
+
+    private void readAssignment() throws GRBException {
+        state.clearAssignment();
+
+        for (int j = 0; j < state.numPods; j++) {
+            double[] values = model.get(GRB.DoubleAttr.X, Arrays.copyOf(columnVar[j], columnCount[j]));
+
+            for (int c = 0; c < columnCount[j]; c++) {
+                if (values[c] > 0.5) {
+                    state.assign(j, columnNode[j][c]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private double remaining(long startTime) {
+        return timeLimit - seconds(startTime);
+    }
+
+    private static double seconds(long startTime) {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    private static double gap(double objective, double bound) {
+        return objective == 0.0 ? 0.0 : (objective - bound) / Math.abs(objective);
+    }
+}
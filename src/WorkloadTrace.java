@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Streams the pod events of a trace file, one line per event:
+ *
+ *     pod id, timestamp, resource usage, errors, add|remove
+ *
+ * Fields are separated by ',' or ';' with optional spaces, timestamps do not decrease, and a first line that does not
+ * start with a digit is taken as a header. The file is memory-mapped a window at a time and the fields are parsed from
+ * the bytes into the fields of the reader, so a trace of any size is read without copying it to the heap and without
+ * allocating per event.
+ *
+ * The current event stays available through the getters until advance moves to the next one.
+ */
+class WorkloadTrace implements AutoCloseable {
+    /* Bytes mapped at a time; a line must fit in a window. */
+    private static final int WINDOW = 64 << 20;
+
+    private FileChannel channel;
+    private long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+
+    /* Start of the next line in the window, the parse position in the current line and the end of its content. */
+    private int next;
+    private int position;
+    private int last;
+
+    private boolean hasEvent;
+    private long podId;
+    private long timestamp;
+    private int resourceUsage;
+    private int errors;
+    private boolean arrival;
+
+    public WorkloadTrace(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0);
+
+        /* A header is a first line that does not start with a number. */
+        if (nextLine() && position < last && !Character.isDigit(window.get(position)) && window.get(position) != '-')
+            advance();
+        else {
+            next = 0;
+            advance();
+        }
+    }
+
+    public boolean hasEvent() {
+        return hasEvent;
+    }
+
+    public long getPodId() {
+        return podId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getResourceUsage() {
+        return resourceUsage;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    /* True for an add event, false for a remove event. */
+    public boolean isArrival() {
+        return arrival;
+    }
+
+    /* Parses the next event, skipping blank lines, or clears hasEvent at the end of the file. */
+    public void advance() throws IOException {
+        while (nextLine()) {
+            if (position < last) {
+                parseEvent();
+                hasEvent = true;
+                return;
+            }
+        }
+
+        hasEvent = false;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /* Moves to the next line, remapping the window when the line crosses its end. Returns false at the end of the file. */
+    private boolean nextLine() throws IOException {
+        if (windowStart + next >= fileSize)
+            return false;
+
+        int end = scanLineEnd(next);
+
+        if (end == windowLimit && windowStart + windowLimit < fileSize) {
+            map(windowStart + next);
+            end = scanLineEnd(next);
+
+            if (end == windowLimit && windowStart + windowLimit < fileSize)
+                throw new IllegalArgumentException("Trace line at byte " + windowStart + " is longer than " + WINDOW + " bytes");
+        }
+
+        position = next;
+        next = end + 1;
+
+        /* Trailing spaces and the '\r' of a Windows line break are not part of the content. */
+        last = end;
+        while (last > position && (window.get(last - 1) == '\r' || window.get(last - 1) == ' ' || window.get(last - 1) == '\t'))
+            last--;
+
+        skipSpaces();
+        return true;
+    }
+
+    private int scanLineEnd(int from) {
+        int end = from;
+
+        while (end < windowLimit && window.get(end) != '\n')
+            end++;
+
+        return end;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        windowLimit = (int) Math.min(WINDOW, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowLimit);
+        next = 0;
+    }
+
+    private void parseEvent() {
+        podId = parseLong();
+        timestamp = parseLong();
+        resourceUsage = (int) parseLong();
+        errors = (int) parseLong();
+
+        if (position >= last)
+            throw malformed("missing event type");
+
+        byte type = window.get(position);
+
+        if (type == 'a' || type == 'A')
+            arrival = true;
+        else if (type == 'r' || type == 'R')
+            arrival = false;
+        else
+            throw malformed("event type must be add or remove");
+    }
+
+    /* Parses a decimal field at position and moves past it and the separator after it. */
+    private long parseLong() {
+        boolean negative = position < last && window.get(position) == '-';
+
+        if (negative)
+            position++;
+
+        int start = position;
+        long value = 0;
+
+        while (position < last) {
+            byte b = window.get(position);
+
+            if (b < '0' || b > '9')
+                break;
+
+            value = value * 10 + (b - '0');
+            position++;
+        }
+
+        if (position == start)
+            throw malformed("expected a number");
+
+        skipSpaces();
+
+        if (position < last && (window.get(position) == ',' || window.get(position) == ';')) {
+            position++;
+            skipSpaces();
+        }
+
+        return negative ? -value : value;
+    }
+
+    private void skipSpaces() {
+        while (position < last && (window.get(position) == ' ' || window.get(position) == '\t'))
+            position++;
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Malformed trace line at byte " + (windowStart + position) + ": " + reason);
+    }
+}
@@ -0,0 +1,78 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * NodeFitFilter on the Vector API: for a block of nodes as wide as the preferred int vector, every resource computes
+ * capacity - used - usage in a few instructions and the block keeps the lane-wise minimum, so a single compare with 0
+ * gives the nodes the pod fits in, whatever the number of resources. Keeping one vector instead of a mask per resource
+ * also keeps the masks from being boxed when the and-chain does not compile to registers. The nodes past the last
+ * full block are checked one by one. Loaded by name from NodeFitFilter.create, since it needs the
+ * jdk.incubator.vector module; it is compiled on its own, with that module and the classes of src, see NodeFitFilter.
+ */
+class VectorNodeFitFilter extends NodeFitFilter {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    public int firstFit(ClusterState state, int pod, int from) {
+        int numNodes = state.numNodes;
+        int i = from;
+
+        for (int bound = from + SPECIES.loopBound(numNodes - from); i < bound; i += SPECIES.length()) {
+            VectorMask<Integer> fits = fitsBlock(state, pod, i);
+
+            if (fits.anyTrue())
+                return i + fits.firstTrue();
+        }
+
+        for (; i < numNodes; i++) {
+            if (state.fits(pod, i))
+                return i;
+        }
+
+        return -1;
+    }
+
+    public int filter(ClusterState state, int pod, boolean[] fits) {
+        int numNodes = state.numNodes;
+        int bound = SPECIES.loopBound(numNodes);
+        int count = 0;
+        int i = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            VectorMask<Integer> block = fitsBlock(state, pod, i);
+            block.intoArray(fits, i);
+            count += block.trueCount();
+        }
+
+        for (; i < numNodes; i++) {
+            fits[i] = state.fits(pod, i);
+
+            if (fits[i])
+                count++;
+        }
+
+        return count;
+    }
+
+    /* The nodes of the block at i the pod fits in, in every resource. */
+    private static VectorMask<Integer> fitsBlock(ClusterState state, int pod, int i) {
+        IntVector slack = slack(state, pod, i, 0);
+
+        for (int r = 1; r < state.numResources; r++)
+            slack = slack.min(slack(state, pod, i, r));
+
+        return slack.compare(VectorOperators.GE, 0);
+    }
+
+    /* Room left in resource r on the nodes of the block at i after the pod is placed, negative where it does not fit. */
+    private static IntVector slack(ClusterState state, int pod, int i, int r) {
+        return IntVector.fromArray(SPECIES, state.nodeResourceCapacity[r], i)
+                .sub(IntVector.fromArray(SPECIES, state.nodeResourceUsed[r], i))
+                .sub(state.podResource[r][pod]);
+    }
+}